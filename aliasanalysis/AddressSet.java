@@ -0,0 +1,115 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.HashMap;
+import coins.backend.lir.LirNode;
+
+/**
+ * A set of the addresses of a function as a bitset over the ids given by
+ * AddressSet.Ids. A set which is copied from an empty set shares the words
+ * of the original, and the words are copied when either of them is changed.
+ **/
+final class AddressSet {
+	private static final long[] EMPTY = new long[0];
+	private long[] words;
+	/** The words may be shared with another set **/
+	private boolean shared;
+
+	AddressSet(){
+		words = EMPTY;
+	}
+
+
+	boolean contains(int id){
+		if(id<0) return false;
+		int w = id>>>6;
+		return w<words.length && (words[w] & (1L<<id))!=0;
+	}
+
+
+	void add(int id){
+		if(contains(id)) return;
+		int w = id>>>6;
+		own(w+1);
+		words[w] |= (1L<<id);
+	}
+
+
+	void remove(int id){
+		if(!contains(id)) return;
+		own(0);
+		words[id>>>6] &= ~(1L<<id);
+	}
+
+
+	/**
+	 * Add all the addresses of the other. If this set is empty, the words are shared.
+	 **/
+	void addAll(AddressSet other){
+		if(other==this || other.words.length==0) return;
+		if(isEmpty()){
+			words = other.words;
+			shared = true;
+			other.shared = true;
+			return;
+		}
+		own(other.words.length);
+		for(int i=0;i<other.words.length;i++) words[i] |= other.words[i];
+	}
+
+
+	boolean isEmpty(){
+		for(int i=0;i<words.length;i++){
+			if(words[i]!=0) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Make the words writable and at least n long.
+	 **/
+	private void own(int n){
+		if(!shared && words.length>=n) return;
+		long[] w = new long[Math.max(n,words.length)];
+		System.arraycopy(words,0,w,0,words.length);
+		words = w;
+		shared = false;
+	}
+
+
+	/**
+	 * The ids of the addresses.
+	 **/
+	static final class Ids {
+		private HashMap ids;
+
+		Ids(){
+			ids = new HashMap();
+		}
+
+
+		/**
+		 * Return the id of the address, numbering it if it is new.
+		 **/
+		int id(LirNode addr){
+			Integer id = (Integer)ids.get(addr);
+			if(id!=null) return id.intValue();
+			int n = ids.size();
+			ids.put(addr, new Integer(n));
+			return n;
+		}
+
+
+		/**
+		 * Return the id of the address, or -1 if it is not numbered.
+		 **/
+		int lookup(LirNode addr){
+			Integer id = (Integer)ids.get(addr);
+			return (id==null) ? -1 : id.intValue();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * Memo of the answers of the alias queries of DDAliasAnalysis.
+ * An answer is keyed by the addresses of the load and the store, the basic
+ * block and the position in it where the query starts. Each answer records
+ * the basic blocks which were visited to get it, and is discarded when the
+ * alias sets of one of them or of one of their predecessors are changed.
+ **/
+class AliasCache {
+	/** The addresses may be the same **/
+	static final int MAY = 1;
+	/** The addresses are not the same **/
+	static final int NO = 2;
+	private HashMap answers;
+	/** The keys of the answers which depend on each basic block **/
+	private ArrayList[] users;
+	private int hits;
+	private int misses;
+	private int invalidated;
+
+	AliasCache(int idBound){
+		answers = new HashMap();
+		users = new ArrayList[idBound];
+	}
+
+
+	/**
+	 * Return MAY or NO, or 0 if the query is not answered yet.
+	 **/
+	int get(LirNode loadAddr, LirNode storeAddr, BasicBlk blk, BiLink q){
+		Integer answer = (Integer)answers.get(new Key(loadAddr,storeAddr,blk.id,q));
+		if(answer==null){
+			misses++;
+			return 0;
+		}
+		hits++;
+		return answer.intValue();
+	}
+
+
+	/**
+	 * Record the answer.
+	 * @param visited The ids of the basic blocks which were visited to get the answer
+	 * @param nVisited The number of the ids, 0 if only blk was visited
+	 **/
+	void put(LirNode loadAddr, LirNode storeAddr, BasicBlk blk, BiLink q, int answer, int[] visited, int nVisited){
+		Key key = new Key(loadAddr,storeAddr,blk.id,q);
+		use(blk.id,key);
+		for(int i=0;i<nVisited;i++){
+			if(visited[i]!=blk.id) use(visited[i],key);
+		}
+		answers.put(key, new Integer(answer));
+	}
+
+
+	private void use(int id, Key key){
+		if(users[id]==null) users[id] = new ArrayList();
+		users[id].add(key);
+	}
+
+
+	/**
+	 * Discard the answers which depend on the alias sets of the basic block.
+	 * The queries read the ambiguous sets of the predecessors of the visited
+	 * blocks, so the answers which visited the successors are discarded too.
+	 **/
+	void invalidate(BasicBlk blk){
+		invalidate(blk.id);
+		for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
+			invalidate(((BasicBlk)p.elem()).id);
+		}
+	}
+
+
+	private void invalidate(int id){
+		ArrayList keys = users[id];
+		if(keys==null) return;
+		for(int i=0;i<keys.size();i++){
+			if(answers.remove(keys.get(i))!=null) invalidated++;
+		}
+		users[id] = null;
+	}
+
+
+	String statistics(){
+		return "hits "+hits+", misses "+misses+", invalidated "+invalidated;
+	}
+
+
+	private static class Key {
+		private LirNode loadAddr;
+		private LirNode storeAddr;
+		private int blk;
+		/** The position where the query starts, compared by identity **/
+		private BiLink q;
+		private int hash;
+
+		Key(LirNode loadAddr, LirNode storeAddr, int blk, BiLink q){
+			this.loadAddr = loadAddr;
+			this.storeAddr = storeAddr;
+			this.blk = blk;
+			this.q = q;
+			hash = ((loadAddr.hashCode()*31+storeAddr.hashCode())*31+blk)*31+System.identityHashCode(q);
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return hash==k.hash && blk==k.blk && q==k.q && loadAddr.equals(k.loadAddr) && storeAddr.equals(k.storeAddr);
+		}
+	}
+}
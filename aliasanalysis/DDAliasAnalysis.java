@@ -4,8 +4,6 @@
 --------------------------------------------------------------------- */
 package coins.ssa;
 
-import java.util.HashSet;
-import java.util.HashMap;
 import java.util.ArrayList;
 import coins.backend.Data;
 import coins.backend.Function;
@@ -25,17 +23,33 @@ class DDAliasAnalysis implements LocalTransformer {
     private Function f;
     private Dominators dom;
     private int idBound;
-    private HashMap blkToAmbSet;
-    private HashMap blkToAlias;
-    private ArrayList phiCongruenceClass;
+    /** The ids of the addresses **/
+    private AddressSet.Ids addrIds;
+    /** The ambiguous addresses of each basic block **/
+    private AddressSet[] blkToAmbSet;
+    /** The aliases of each address of each basic block, indexed by the id of the address **/
+    private AddressSet[][] blkToAlias;
+    private PhiCongruence phiCongruenceClass;
+    /** The scratch of the queries, which is allocated once per function **/
+    private Scratch.Flags visited;
+    /** The ids of the basic blocks visited by the current query, in the order of the visits **/
+    private int[] visitedIds;
+    private int nVisited;
+    /** The memo of the answers of checkAlias **/
+    private AliasCache cache;
     
     public DDAliasAnalysis(SsaEnvironment e,Function func){
     	f = func;
     	env=e;
     	idBound = func.flowGraph().idBound();
+    	visited = new Scratch.Flags(idBound);
+    	visitedIds = new int[idBound];
+    	cache = new AliasCache(idBound);
     	dom = (Dominators) f.require(Dominators.analyzer);
+    	PassProfiler.Record profile = PassProfiler.begin(env, f, name());
     	makeMayAliasGroup();
     	makeCongruenceClass();
+    	profile.end();
     }
     public DDAliasAnalysis(SsaEnvironment env, SsaSymTab sstab) {
 		this.env = env;
@@ -43,7 +57,7 @@ class DDAliasAnalysis implements LocalTransformer {
     
     
     private void makeCongruenceClass(){
-    	phiCongruenceClass = new ArrayList();
+    	phiCongruenceClass = new PhiCongruence();
     	for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
     		BasicBlk blk = (BasicBlk)p.elem();
     		for(BiLink pp=blk.instrList().first();!pp.atEnd();pp=pp.next()){
@@ -55,61 +69,41 @@ class DDAliasAnalysis implements LocalTransformer {
     }
     
     
+    /**
+     * Merge the classes of the variable defined by the phi and its arguments.
+     **/
     public void makePhiCC(LirNode phi){
-    	HashSet newCC = new HashSet();
 		for(int i=1;i<phi.nKids();i++){
-			HashSet cc = getCC(phi.kid(i).kid(0));
-			if(cc!=null)newCC.addAll(cc);
-			newCC.add(phi.kid(i).kid(0));
+			phiCongruenceClass.union(phi.kid(0),phi.kid(i).kid(0));
 		}
-		HashSet defCC = getCC(phi.kid(0));
-		if(defCC!=null) newCC.addAll(defCC);
-		newCC.add(phi.kid(0));
-		phiCongruenceClass.add(newCC);
-    }
-    
-    
-    private HashSet getCC(LirNode var){
-    	HashSet temp = null;
-    	for(int i=0;i<phiCongruenceClass.size();i++){
-    		HashSet cc = (HashSet)phiCongruenceClass.get(i);
-    		if(cc.contains(var)){
-    			temp = cc;
-    			phiCongruenceClass.remove(cc);
-    			break;
-    		}
-    	}
-    	return temp;
+		if(phi.nKids()==1) phiCongruenceClass.id(phi.kid(0));
     }
     
     
     private boolean checkCongruence(LirNode var1, LirNode var2){
-    	HashSet var1CC = getCC(var1);
-    	return (var1CC!=null && var1CC.contains(var2));
+    	return phiCongruenceClass.congruent(var1,var2);
     }
     
     
-    private HashMap getAliasSet(BasicBlk blk){
-    	if(!blkToAlias.containsKey(blk)){
-    		HashMap nodeToAlias = new HashMap(blk.instrList().length());
-    		blkToAlias.put(blk, nodeToAlias);
-    	}
-    	return (HashMap)blkToAlias.get(blk);
+    /**
+     * Return the aliases of the address in the basic block, or null.
+     **/
+    private AddressSet aliases(BasicBlk blk, int addr){
+    	AddressSet[] sets = blkToAlias[blk.id];
+    	return (sets==null || addr>=sets.length) ? null : sets[addr];
     }
     
     
-    private HashSet getAmbAliasSet(BasicBlk blk){
-    	if(!blkToAmbSet.containsKey(blk)){
-    		HashSet ambToAmbSet = new HashSet();
-    		blkToAmbSet.put(blk, ambToAmbSet);
-    	}
-    	return (HashSet)blkToAmbSet.get(blk);
+    private AddressSet getAmbAliasSet(BasicBlk blk){
+    	if(blkToAmbSet[blk.id]==null) blkToAmbSet[blk.id] = new AddressSet();
+    	return blkToAmbSet[blk.id];
     }
     
     
     private void makeMayAliasGroup(){
-    	blkToAmbSet = new HashMap();
-    	blkToAlias = new HashMap();
+    	addrIds = new AddressSet.Ids();
+    	blkToAmbSet = new AddressSet[idBound];
+    	blkToAlias = new AddressSet[idBound][];
     	for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
     		BasicBlk blk = (BasicBlk)p.elem();
     		makeMayAliasGroup(blk);
@@ -118,72 +112,82 @@ class DDAliasAnalysis implements LocalTransformer {
     
     
     private void makeMayAliasGroup(BasicBlk blk){
-    	HashMap nodeToAlias = getAliasSet(blk);
-		HashSet ambSet = getAmbAliasSet(blk);
+		AddressSet ambSet = getAmbAliasSet(blk);
 		for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
 			LirNode node = (LirNode)q.elem();
 			if(node.opCode==Op.PROLOGUE){
 				for(int i=0;i<node.nKids();i++){
-					if(node.kid(i).opCode==Op.REG) ambSet.add(node.kid(i));
+					if(node.kid(i).opCode==Op.REG) ambSet.add(addrIds.id(node.kid(i)));
 				}
 			}
-			if(node.opCode==Op.SET) insertNewEntry(node,blk,nodeToAlias,ambSet);
+			if(node.opCode==Op.SET) insertNewEntry(node,blk,ambSet);
 			if(node.opCode==Op.CALL) getAmbSet(node,ambSet);
 		}
     }
     
     
-    private HashSet getAliases(LirNode var, HashMap nodeToAlias){
-    	if(!nodeToAlias.containsKey(var)){
-    		HashSet addrs = new HashSet();
-    		nodeToAlias.put(var, addrs);
+    /**
+     * Return the aliases of the address in the basic block, making an empty set if there is none.
+     **/
+    private AddressSet getAliases(BasicBlk blk, int addr){
+    	AddressSet[] sets = blkToAlias[blk.id];
+    	if(sets==null || addr>=sets.length){
+    		AddressSet[] newSets = new AddressSet[Math.max(addr+1,(sets==null) ? 16 : sets.length*2)];
+    		if(sets!=null) System.arraycopy(sets,0,newSets,0,sets.length);
+    		sets = newSets;
+    		blkToAlias[blk.id] = sets;
     	}
-    	return (HashSet)nodeToAlias.get(var);
+    	if(sets[addr]==null) sets[addr] = new AddressSet();
+    	return sets[addr];
     }
     
     
-    private void insertNewEntry(LirNode set, BasicBlk blk, HashMap nodeToAlias, HashSet ambSet){
-    	LirNode laddr = getAddr(set.kid(0));
-		LirNode raddr = getAddr(set.kid(1)); 
-		setAmbSet(laddr,raddr,blk,ambSet);
-		HashSet addrs = getAliases(laddr,nodeToAlias);
+    private void insertNewEntry(LirNode set, BasicBlk blk, AddressSet ambSet){
+    	int laddr = addrIds.id(getAddr(set.kid(0)));
+		LirNode raddr = getAddr(set.kid(1));
+		int raddrId = addrIds.id(raddr);
+		setAmbSet(laddr,raddrId,blk,ambSet);
+		AddressSet predSet = aliases(blk,raddrId);
+		AddressSet addrs = getAliases(blk,laddr);
+		if(predSet!=null) addrs.addAll(predSet);
 		addrs.add(laddr);
-		addrs.add(raddr);
-		if(nodeToAlias.containsKey(raddr)){
-			HashSet predSet = (HashSet)nodeToAlias.get(raddr);
-			addrs.addAll(predSet);
-		}
+		addrs.add(raddrId);
 		if(set.kid(0).opCode==Op.REG && !isAmb(raddr,blk)) ambSet.remove(laddr);
     }
     
     
     public void insertNewEntry(LirNode set, BasicBlk blk){
-    	HashMap nodeToAlias = getAliasSet(blk);
-		HashSet ambSet = getAmbAliasSet(blk);
-		insertNewEntry(set,blk,nodeToAlias,ambSet);
+		AddressSet ambSet = getAmbAliasSet(blk);
+		insertNewEntry(set,blk,ambSet);
+		cache.invalidate(blk);
     }
     
     
-    private void setAmbSet(LirNode addr1, LirNode addr2, BasicBlk blk, HashSet ambSet){
-		ambSet.add(addr1);
-		ambSet.add(addr2);
+    /**
+     * Add the addresses to the ambiguous set, with the ambiguous sets of the
+     * predecessors which have them. The sets of the predecessors are added
+     * first, so that an empty set shares the words of the first of them.
+     **/
+    private void setAmbSet(int addr1, int addr2, BasicBlk blk, AddressSet ambSet){
 		for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
 			BasicBlk pred = (BasicBlk)p.elem();
-			HashSet predAmbSet = getAmbAliasSet(pred);
+			AddressSet predAmbSet = getAmbAliasSet(pred);
 			if(predAmbSet.contains(addr1) || predAmbSet.contains(addr2)) ambSet.addAll(predAmbSet);
 		}
+		ambSet.add(addr1);
+		ambSet.add(addr2);
     }
     
     
     private boolean isAmb(LirNode addr, BasicBlk blk){
-    	HashSet ambSet = getAmbAliasSet(blk);
-    	return (addr.opCode==Op.STATIC || ambSet.contains(addr));
+    	AddressSet ambSet = getAmbAliasSet(blk);
+    	return (addr.opCode==Op.STATIC || ambSet.contains(addrIds.lookup(addr)));
     }
     
     
-    private void getAmbSet(LirNode exp, HashSet ambSet){
+    private void getAmbSet(LirNode exp, AddressSet ambSet){
     	for(int i=0;i<exp.nKids();i++){
-    		if(exp.kid(i).opCode==Op.REG) ambSet.add(exp.kid(i));
+    		if(exp.kid(i).opCode==Op.REG) ambSet.add(addrIds.id(exp.kid(i)));
     		else if(exp.kid(i).nKids()>0) getAmbSet(exp.kid(i),ambSet);
     	}
     }
@@ -199,9 +203,31 @@ class DDAliasAnalysis implements LocalTransformer {
     	if(addr1.equals(addr2))return true;
     	if(addr1.opCode==Op.STATIC && addr2.opCode==Op.STATIC)return true;
     	if(addr1.opCode==Op.FRAME && addr2.opCode==Op.FRAME)return false;
+    	int memo = cache.get(addr1,addr2,blk,q);
+    	if(memo!=0)return (memo==AliasCache.MAY);
     	int ans = checkLocal(addr1,addr2,blk,q);
-    	if(ans==1)return true;
-    	return (checkGlobal(addr1,addr2,blk));
+    	if(ans!=0){
+    		cache.put(addr1,addr2,blk,q,(ans==1) ? AliasCache.MAY : AliasCache.NO,null,0);
+    		return (ans==1);
+    	}
+    	boolean alias = checkGlobal(addr1,addr2,blk);
+    	cache.put(addr1,addr2,blk,q,alias ? AliasCache.MAY : AliasCache.NO,visitedIds,nVisited);
+    	return alias;
+    }
+    
+    
+    /**
+     * Discard the memo of the queries which depend on the basic block.
+     * Call this after a statement is removed from the block or changed.
+     **/
+    public void invalidate(BasicBlk blk){
+    	cache.invalidate(blk);
+    }
+    
+    
+    /** The hits, the misses and the invalidated answers of the memo of checkAlias **/
+    public String cacheStatistics(){
+    	return cache.statistics();
     }
     
     public void collectVars(ArrayList vars, LirNode exp){
@@ -261,10 +287,10 @@ class DDAliasAnalysis implements LocalTransformer {
     }
     
     
-    private boolean checkGlobalSSA(LirNode loadAddr, BasicBlk blk, BiLink q, ArrayList newAddr, boolean[] visited){
+    private boolean checkGlobalSSA(LirNode loadAddr, BasicBlk blk, BiLink q, ArrayList newAddr, Scratch.Flags visited){
     	BasicBlk domBlk = blk;
     	while(true){
-    		visited[domBlk.id] = true;
+    		visited.set(domBlk.id);
     		if(checkLocalSSA(loadAddr,domBlk,q,newAddr,visited)==1) return true;
     		else{
     			domBlk = dom.immDominator(domBlk);
@@ -299,7 +325,7 @@ class DDAliasAnalysis implements LocalTransformer {
      * @param newAddr
      * @return
      */
-    private int checkLocalSSA(LirNode loadAddr, BasicBlk blk, BiLink q, ArrayList newAddr, boolean[] visited){
+    private int checkLocalSSA(LirNode loadAddr, BasicBlk blk, BiLink q, ArrayList newAddr, Scratch.Flags visited){
     	LirNode storeAddr = (LirNode)newAddr.get(0);
     	for(BiLink p=q;!p.atEnd();p=p.prev()){
     		LirNode node = (LirNode)p.elem();
@@ -312,7 +338,7 @@ class DDAliasAnalysis implements LocalTransformer {
     		if(node.opCode==Op.PHI && node.kid(0).equals(storeAddr)){
     			for(int i=1;i<node.nKids();i++){
     				BasicBlk pred = (((LirLabelRef) node.kid(i).kid(1)).label).basicBlk();
-    				if(newAddr.contains(node.kid(i).kid(0)) || visited[pred.id])continue;
+    				if(newAddr.contains(node.kid(i).kid(0)) || visited.get(pred.id))continue;
     				newAddr.add(0, node.kid(i).kid(0));
     				if(checkGlobalSSA(loadAddr,pred,pred.instrList().last(),newAddr,visited)) return 1;
     				newAddr.remove(node.kid(i).kid(0));
@@ -389,26 +415,28 @@ class DDAliasAnalysis implements LocalTransformer {
     		if(node.opCode!=Op.SET || !node.kid(0).equals(raddr))continue;
     		if(getAddr(node.kid(1)).equals(load))return true;
     	}
+    	int id = addrIds.lookup(raddr);
     	for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
     		BasicBlk pred = (BasicBlk)p.elem();
-    		HashSet ambSet = getAmbAliasSet(pred);
-    		if(ambSet.contains(raddr))return true;
+    		if(getAmbAliasSet(pred).contains(id))return true;
     	}
     	return false;
     }
     
     
     private boolean checkGlobal(LirNode loadAddr, LirNode storeAddr, BasicBlk blk){
-    	boolean[] visited = new boolean[idBound];
+    	visited.clear();
+    	nVisited = 0;
     	return checkGlobal(loadAddr,storeAddr,blk,visited);
     }
     
     
-    private boolean checkGlobal(LirNode loadAddr, LirNode storeAddr, BasicBlk blk, boolean[] visited){
-    	visited[blk.id] = true;
+    private boolean checkGlobal(LirNode loadAddr, LirNode storeAddr, BasicBlk blk, Scratch.Flags visited){
+    	visited.set(blk.id);
+    	visitedIds[nVisited++] = blk.id;
     	for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
     		BasicBlk pred = (BasicBlk)p.elem();
-    		if(visited[pred.id])continue;
+    		if(visited.get(pred.id))continue;
     		int ans = checkLocal(loadAddr,storeAddr,pred,pred.instrList().last());
         	if(ans==1)return true;
         	if(ans==2)continue;
@@ -0,0 +1,98 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.HashMap;
+import coins.backend.lir.LirNode;
+
+/**
+ * The phi congruence classes of a function, as disjoint sets of the SSA variables.
+ * Each variable is numbered densely when it is seen first, and the classes are
+ * kept by union-find with union by rank and path compression.
+ **/
+class PhiCongruence {
+	/** The id of each variable **/
+	private HashMap ids;
+	private int[] parent;
+	private int[] rank;
+	private int size;
+
+	PhiCongruence(){
+		ids = new HashMap();
+		parent = new int[64];
+		rank = new int[64];
+	}
+
+
+	/**
+	 * Return the id of the variable, numbering it if it is new.
+	 **/
+	int id(LirNode var){
+		Integer id = (Integer)ids.get(var);
+		if(id!=null) return id.intValue();
+		if(size==parent.length){
+			int[] p = new int[size*2];
+			int[] r = new int[size*2];
+			System.arraycopy(parent,0,p,0,size);
+			System.arraycopy(rank,0,r,0,size);
+			parent = p;
+			rank = r;
+		}
+		parent[size] = size;
+		ids.put(var, new Integer(size));
+		return size++;
+	}
+
+
+	/**
+	 * Return the representative of the class of the id.
+	 **/
+	int find(int x){
+		int root = x;
+		while(parent[root]!=root) root = parent[root];
+		while(parent[x]!=root){
+			int next = parent[x];
+			parent[x] = root;
+			x = next;
+		}
+		return root;
+	}
+
+
+	/**
+	 * Merge the classes of the two variables.
+	 **/
+	void union(LirNode var1, LirNode var2){
+		int r1 = find(id(var1));
+		int r2 = find(id(var2));
+		if(r1==r2) return;
+		if(rank[r1]<rank[r2]){
+			parent[r1] = r2;
+		}else{
+			parent[r2] = r1;
+			if(rank[r1]==rank[r2]) rank[r1]++;
+		}
+	}
+
+
+	/**
+	 * Return true if the two variables are in the same class.
+	 * The classes are not changed except for the path compression.
+	 **/
+	boolean congruent(LirNode var1, LirNode var2){
+		Integer id1 = (Integer)ids.get(var1);
+		Integer id2 = (Integer)ids.get(var2);
+		if(id1==null || id2==null) return false;
+		return find(id1.intValue())==find(id2.intValue());
+	}
+
+
+	/**
+	 * Return the number of the variables in the classes.
+	 **/
+	int size(){
+		return size;
+	}
+}
@@ -0,0 +1,211 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import coins.backend.Function;
+import coins.backend.Module;
+import coins.backend.Op;
+import coins.backend.Root;
+import coins.backend.ana.Dominators;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+import coins.backend.util.ImList;
+import coins.driver.CoinsOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the SSA optimization passes on synthetic functions.
+ * The passes rewrite the function, so the function is loaded again from
+ * the LIR text before each invocation. DDPRE, PRE and DDCPYP are measured
+ * at their entry points, and the analyses which their doIt makes before
+ * are made in the setup of their states. See bench/README.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PassBenchmark {
+	/**
+	 * The function of the shape and the size, loaded again from the LIR text
+	 * before each invocation.
+	 **/
+	@State(Scope.Thread)
+	public static class Input {
+		@Param({"straight", "diamonds", "loops", "memory"})
+		public String shape;
+		@Param({"16", "64", "256"})
+		public int size;
+
+		private String lir;
+		SsaEnvironment env;
+		SsaSymTab sstab;
+		Function f;
+
+		@Setup(Level.Trial)
+		public void generate(){
+			lir = SyntheticLir.module(shape,size);
+		}
+
+
+		@Setup(Level.Invocation)
+		public void load() throws Exception {
+			CoinsOptions opt = new CoinsOptions();
+			Root root = new Root(opt, new PrintWriter(System.out, true));
+			Module module = new Module(ImList.readSexp(new StringReader(lir)), root);
+			env = new SsaEnvironment(module, opt);
+			f = null;
+			for(BiLink p=module.elements.first();!p.atEnd();p=p.next()){
+				if(p.elem() instanceof Function) f = (Function)p.elem();
+			}
+			sstab = new SsaSymTab(env, f);
+		}
+	}
+
+
+
+
+	/**
+	 * DDPRE with its function and depth first spanning tree set, so that
+	 * only DDPRE.invoke is measured.
+	 **/
+	@State(Scope.Thread)
+	public static class DDPREState {
+		DDPRE ddpre;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input in){
+			ddpre = new DDPRE(in.env,in.sstab);
+			ddpre.init(in.f);
+		}
+	}
+
+
+	/**
+	 * PRE initialized for the function, and the expressions which its global
+	 * code motion would take, so that only PRE.pre is measured.
+	 **/
+	@State(Scope.Thread)
+	public static class PREState {
+		PRE pre;
+		ArrayList nodes;
+		ArrayList vars;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input in){
+			pre = new PRE(in.env,in.sstab,in.f);
+			pre.init();
+			nodes = new ArrayList();
+			vars = new ArrayList();
+			ArrayList exps = new ArrayList();
+			for(BiLink p=in.f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+				BasicBlk blk = (BasicBlk)p.elem();
+				for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+					LirNode node = (LirNode)q.elem();
+					if(node.opCode!=Op.SET || node.kid(1).nKids()==0 || exps.contains(node.kid(1)) || !pre.checkType(node))continue;
+					exps.add(node.kid(1));
+					ArrayList v = new ArrayList();
+					pre.collectVars(v,node.kid(1));
+					nodes.add(node);
+					vars.add(v);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * DDCPYP with the dominators and the def-use chains of the function, and
+	 * the copies of the function, so that only DDCPYP.cpyp is measured.
+	 **/
+	@State(Scope.Thread)
+	public static class DDCPYPState {
+		DDCPYP ddcpyp;
+		ArrayList blks;
+		ArrayList copies;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input in){
+			ddcpyp = new DDCPYP(in.env,in.f);
+			in.f.require(Dominators.analyzer);
+			ddcpyp.defUse = new DefUse(in.env,in.f);
+			blks = new ArrayList();
+			copies = new ArrayList();
+			for(BiLink p=in.f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+				BasicBlk blk = (BasicBlk)p.elem();
+				for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+					LirNode node = (LirNode)q.elem();
+					if(node.opCode!=Op.SET || node.kid(0).opCode!=Op.REG || node.kid(1).nKids()>0)continue;
+					blks.add(blk);
+					copies.add(node);
+				}
+			}
+		}
+	}
+
+
+	@Benchmark
+	public Object gvn(Input in){
+		GVN gvn = new GVN(in.env,in.f,in.sstab);
+		gvn.gvn(1);
+		return gvn;
+	}
+
+
+	@Benchmark
+	public Object eqp(Input in){
+		EQP eqp = new EQP(in.env,in.f,in.sstab);
+		eqp.invoke(1);
+		return eqp;
+	}
+
+
+	@Benchmark
+	public Object ddpre(DDPREState s){
+		s.ddpre.invoke();
+		return s.ddpre;
+	}
+
+
+	@Benchmark
+	public Object pre(PREState s){
+		for(int i=0;i<s.nodes.size();i++){
+			s.pre.pre((LirNode)s.nodes.get(i),(ArrayList)s.vars.get(i));
+		}
+		return s.pre;
+	}
+
+
+	@Benchmark
+	public Object ddcpyp(DDCPYPState s){
+		for(int i=0;i<s.copies.size();i++){
+			LirNode node = (LirNode)s.copies.get(i);
+			s.ddcpyp.cpyp((BasicBlk)s.blks.get(i),node.kid(0),node.kid(1),0);
+		}
+		return s.ddcpyp;
+	}
+
+
+	@Benchmark
+	public Object alias(Input in){
+		return new EMemoryAliasAnalyze(in.env,in.f);
+	}
+}
@@ -0,0 +1,233 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+
+/**
+ * Generator of synthetic LIR modules on SSA form for the benchmarks.
+ * The module has one function "bench" with the parameters p, a, b and n.
+ * The shape of the control flow graph is one of
+ *   straight : one long basic block,
+ *   diamonds : a sequence of if-then-else with partially redundant expressions,
+ *   loops    : deep loop nests with loop-invariant expressions and loads,
+ *   memory   : many loads and stores through p and a frame array.
+ * The size is the number of statements, diamonds or loops.
+ **/
+class SyntheticLir {
+	private static final String T = "I32";
+	private StringBuffer out = new StringBuffer();
+	private ArrayList regs = new ArrayList();
+	private int temp;
+	private int label;
+	/** The label of the current basic block **/
+	private String cur;
+
+	/**
+	 * Return the LIR text of the module.
+	 * @param shape straight, diamonds, loops or memory
+	 * @param size The size of the function
+	 **/
+	static String module(String shape, int size){
+		return new SyntheticLir().generate(shape,size);
+	}
+
+
+	private String generate(String shape, int size){
+		String p = param("p");
+		String a = param("a");
+		String b = param("b");
+		param("n");
+		cur = newLabel();
+		out.append("(DEFLABEL \""+cur+"\")\n");
+		String sum = a;
+		if(shape.equals("straight")){
+			for(int k=0;k<size;k++) sum = statement(sum,a,b,k);
+		}else if(shape.equals("diamonds")){
+			for(int k=0;k<size;k++) sum = diamond(sum,a,b);
+		}else if(shape.equals("loops")){
+			int depth = Math.min(size,8);
+			for(int k=0;k<Math.max(1,size/depth);k++) sum = loop(0,depth,sum,a,b,p);
+		}else if(shape.equals("memory")){
+			for(int k=0;k<size;k++){
+				if(k%4==3) sum = diamond(sum,a,b);
+				sum = memory(sum,p,k);
+			}
+		}else{
+			throw new IllegalArgumentException("unknown shape: "+shape);
+		}
+		String ret = newReg("returnvalue");
+		set(ret,reg(sum));
+		out.append("(EPILOGUE (0 0) "+reg(ret)+")\n");
+
+		StringBuffer m = new StringBuffer();
+		m.append("(MODULE \"synthetic\"\n");
+		m.append("(SYMTAB (\"bench\" STATIC UNKNOWN 4 \".text\" XDEF))\n");
+		m.append("(FUNCTION \"bench\"\n(SYMTAB");
+		for(int i=0;i<regs.size();i++) m.append("\n (\""+regs.get(i)+"\" REG "+T+" 4 0)");
+		m.append("\n (\"arr\" FRAME A256 4 -256))\n");
+		m.append("(PROLOGUE (0 0) "+reg(p)+" "+reg(a)+" "+reg(b)+" "+reg("n")+")\n");
+		m.append(out);
+		m.append("))\n");
+		return m.toString();
+	}
+
+
+	/**
+	 * A redundant product and an accumulation.
+	 **/
+	private String statement(String sum, String a, String b, int k){
+		String t = newReg("t");
+		set(t,"(MUL "+T+" "+reg(a)+" "+reg(b)+")");
+		String u = newReg("u");
+		set(u,"(ADD "+T+" "+reg(t)+" (INTCONST "+T+" "+(k%7)+"))");
+		String s = newReg("s");
+		set(s,"(ADD "+T+" "+reg(sum)+" "+reg(u)+")");
+		return s;
+	}
+
+
+	/**
+	 * An if-then-else whose join recomputes the expression of the then part.
+	 **/
+	private String diamond(String sum, String a, String b){
+		String then = newLabel();
+		String els = newLabel();
+		String join = newLabel();
+		jumpc("(TSTLTS "+T+" "+reg(sum)+" "+reg(a)+")",then,els);
+		startBlock(then);
+		String x1 = newReg("x");
+		set(x1,"(ADD "+T+" "+reg(a)+" "+reg(b)+")");
+		jump(join);
+		startBlock(els);
+		String x2 = newReg("x");
+		set(x2,"(SUB "+T+" "+reg(a)+" "+reg(b)+")");
+		jump(join);
+		startBlock(join);
+		String x3 = newReg("x");
+		phi(x3,x1,then,x2,els);
+		String y = newReg("y");
+		set(y,"(ADD "+T+" "+reg(a)+" "+reg(b)+")");
+		String s = newReg("s");
+		set(s,"(ADD "+T+" "+reg(x3)+" "+reg(y)+")");
+		return s;
+	}
+
+
+	/**
+	 * A loop nest. The innermost body has a loop-invariant product and a load.
+	 **/
+	private String loop(int level, int depth, String sum, String a, String b, String p){
+		String pre = cur;
+		String head = newLabel();
+		String body = newLabel();
+		String exit = newLabel();
+		String i = newReg("i");
+		String s = newReg("s");
+		jump(head);
+		startBlock(head);
+		int phis = out.length();
+		jumpc("(TSTLTS "+T+" "+reg(i)+" "+reg("n")+")",body,exit);
+		startBlock(body);
+		String next;
+		if(level+1<depth){
+			next = loop(level+1,depth,s,a,b,p);
+		}else{
+			String inv = newReg("inv");
+			set(inv,"(MUL "+T+" "+reg(a)+" "+reg(b)+")");
+			String off = newReg("off");
+			set(off,"(MUL "+T+" "+reg(i)+" (INTCONST "+T+" 4))");
+			String addr = newReg("addr");
+			set(addr,"(ADD "+T+" "+reg(p)+" "+reg(off)+")");
+			String ld = newReg("ld");
+			set(ld,"(MEM "+T+" "+reg(addr)+")");
+			String t = newReg("t");
+			set(t,"(ADD "+T+" "+reg(s)+" "+reg(inv)+")");
+			next = newReg("s");
+			set(next,"(ADD "+T+" "+reg(t)+" "+reg(ld)+")");
+		}
+		String i2 = newReg("i");
+		set(i2,"(ADD "+T+" "+reg(i)+" (INTCONST "+T+" 1))");
+		String latch = cur;
+		jump(head);
+		StringBuffer h = new StringBuffer();
+		h.append(phiText(i,"(INTCONST "+T+" 0)",pre,reg(i2),latch));
+		h.append(phiText(s,reg(sum),pre,reg(next),latch));
+		out.insert(phis,h);
+		startBlock(exit);
+		return s;
+	}
+
+
+	/**
+	 * A store to the frame array and loads through p and the frame array.
+	 **/
+	private String memory(String sum, String p, int k){
+		out.append("(SET "+T+" (MEM "+T+" (ADD "+T+" (FRAME "+T+" \"arr\") (INTCONST "+T+" "+((k%8)*4)+"))) "+reg(sum)+")\n");
+		String l1 = newReg("ld");
+		set(l1,"(MEM "+T+" (ADD "+T+" (FRAME "+T+" \"arr\") (INTCONST "+T+" "+(((k+3)%8)*4)+")))");
+		String addr = newReg("addr");
+		set(addr,"(ADD "+T+" "+reg(p)+" (INTCONST "+T+" "+((k%16)*4)+"))");
+		String l2 = newReg("ld");
+		set(l2,"(MEM "+T+" "+reg(addr)+")");
+		String s = newReg("s");
+		set(s,"(ADD "+T+" "+reg(l1)+" "+reg(l2)+")");
+		return s;
+	}
+
+
+	private String param(String name){
+		regs.add(name);
+		return name;
+	}
+
+
+	private String newReg(String base){
+		String name = base+"."+(++temp);
+		regs.add(name);
+		return name;
+	}
+
+
+	private String newLabel(){
+		return "L"+(++label);
+	}
+
+
+	private static String reg(String name){
+		return "(REG "+T+" \""+name+"\")";
+	}
+
+
+	private void set(String var, String exp){
+		out.append("(SET "+T+" "+reg(var)+" "+exp+")\n");
+	}
+
+
+	private void phi(String var, String x1, String l1, String x2, String l2){
+		out.append(phiText(var,reg(x1),l1,reg(x2),l2));
+	}
+
+
+	private static String phiText(String var, String x1, String l1, String x2, String l2){
+		return "(PHI "+T+" "+reg(var)+" (LIST "+x1+" (LABEL "+T+" \""+l1+"\")) (LIST "+x2+" (LABEL "+T+" \""+l2+"\")))\n";
+	}
+
+
+	private void jump(String to){
+		out.append("(JUMP (LABEL "+T+" \""+to+"\"))\n");
+	}
+
+
+	private void jumpc(String cond, String then, String els){
+		out.append("(JUMPC "+cond+" (LABEL "+T+" \""+then+"\") (LABEL "+T+" \""+els+"\"))\n");
+	}
+
+
+	private void startBlock(String l){
+		cur = l;
+		out.append("(DEFLABEL \""+l+"\")\n");
+	}
+}
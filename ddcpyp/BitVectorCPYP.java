@@ -0,0 +1,294 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.ana.DFST;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirLabelRef;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * Global copy propagation over bit-vectors.
+ * Every copy of the function gets an index, and the availability of all
+ * the copies is solved at once over packed long[] vectors per basic block.
+ * Then the uses are rewritten in one pass over the function.
+ **/
+class BitVectorCPYP {
+	private SsaEnvironment env;
+	private Function f;
+	int idBound;
+	int nCopy;
+	int words;
+	/** The copies **/
+	ArrayList copies;
+	HashMap copyToIndex;
+	/** The copies from each variable **/
+	HashMap fromToCopies;
+	/** The copies which are killed by the definition of each variable **/
+	HashMap varToKills;
+	long[][] gen;
+	long[][] kill;
+	long[][] nAvail;
+	long[][] xAvail;
+	/** The number of the replaced uses **/
+	int replaced;
+
+	BitVectorCPYP(SsaEnvironment env, Function f) {
+		this.env = env;
+		this.f = f;
+		idBound = f.flowGraph().idBound();
+	}
+
+
+	/**
+	 * Propagate all the copies of the function at once.
+	 **/
+	public void propagate(){
+		collectCopies();
+		if(nCopy==0) return;
+		compLocalProperty();
+		compAvail();
+		transform();
+		env.println("BitVectorCPYP: "+nCopy+" copies, "+replaced+" uses replaced in "+f.symbol.name, SsaEnvironment.AllThr);
+	}
+
+
+	private boolean isCopy(LirNode node){
+		return node.opCode==Op.SET && node.kid(0).opCode==Op.REG && node.kid(1).nKids()==0
+			&& !node.kid(0).equals(node.kid(1));
+	}
+
+
+	private void collectCopies(){
+		copies = new ArrayList();
+		copyToIndex = new HashMap();
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				if(!isCopy(node) || copyToIndex.containsKey(node)) continue;
+				LirNode copy = node.makeCopy(env.lir);
+				copyToIndex.put(copy, new Integer(copies.size()));
+				copies.add(copy);
+			}
+		}
+		nCopy = copies.size();
+		words = (nCopy+63)>>>6;
+		fromToCopies = new HashMap();
+		varToKills = new HashMap();
+		for(int i=0;i<nCopy;i++){
+			LirNode copy = (LirNode)copies.get(i);
+			setBit(vector(fromToCopies,copy.kid(0)),i);
+			setBit(vector(varToKills,copy.kid(0)),i);
+			if(copy.kid(1).opCode==Op.REG) setBit(vector(varToKills,copy.kid(1)),i);
+		}
+	}
+
+
+	private long[] vector(HashMap map, LirNode var){
+		long[] v = (long[])map.get(var);
+		if(v==null){
+			v = new long[words];
+			map.put(var, v);
+		}
+		return v;
+	}
+
+
+	private int indexOf(LirNode node){
+		if(!isCopy(node)) return -1;
+		Integer index = (Integer)copyToIndex.get(node);
+		return (index==null) ? -1 : index.intValue();
+	}
+
+
+	/**
+	 * Add the copies which are killed by the node to the vector killed.
+	 **/
+	private void kills(LirNode node, long[] killed){
+		switch(node.opCode){
+		case Op.SET:
+		case Op.PHI:
+			kills(node.kid(0),killed,null);
+			break;
+		case Op.CALL:
+			if(node.kid(2).nKids()>0) kills(node.kid(2).kid(0),killed,null);
+			break;
+		case Op.PROLOGUE:
+			for(int i=0;i<node.nKids();i++) kills(node.kid(i),killed,null);
+			break;
+		}
+	}
+
+
+	/**
+	 * If the node is a variable, add the copies killed by its definition to
+	 * the vector killed, or remove them from the vector avail.
+	 **/
+	private void kills(LirNode def, long[] killed, long[] avail){
+		if(def.opCode!=Op.REG) return;
+		long[] v = (long[])varToKills.get(def);
+		if(v==null) return;
+		if(killed!=null) or(killed,v);
+		if(avail!=null){
+			for(int w=0;w<words;w++) avail[w] &= ~v[w];
+		}
+	}
+
+
+	private void compLocalProperty(){
+		gen = new long[idBound][words];
+		kill = new long[idBound][words];
+		long[] killed = new long[words];
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				int index = indexOf(node);
+				Arrays.fill(killed, 0L);
+				kills(node,killed);
+				or(kill[blk.id],killed);
+				for(int w=0;w<words;w++) gen[blk.id][w] &= ~killed[w];
+				if(index!=-1) setBit(gen[blk.id],index);
+			}
+		}
+	}
+
+
+	private void compAvail(){
+		nAvail = newVectors(true);
+		xAvail = newVectors(true);
+		final long[] n = new long[words];
+		final long[] x = new long[words];
+		final BasicBlk entry = f.flowGraph().entryBlk();
+		DFST dfst = (DFST)f.require(DFST.analyzer);
+		DataFlowSolver solver = new DataFlowSolver(f,dfst.blkVectorByRPost());
+		solver.solveForward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
+				if(blk==entry) Arrays.fill(n, 0L);
+				else meetPred(n,xAvail,blk);
+				for(int w=0;w<words;w++) x[w] = gen[blk.id][w] | (n[w] & ~kill[blk.id][w]);
+				update(nAvail[blk.id],n);
+				return update(xAvail[blk.id],x);
+			}
+		});
+	}
+
+
+	/**
+	 * Rewrite the uses of the variables whose copies are available.
+	 **/
+	private void transform(){
+		long[] avail = new long[words];
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			System.arraycopy(nAvail[blk.id],0,avail,0,words);
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				int index = indexOf(node);
+				switch(node.opCode){
+				case Op.PHI:
+					for(int j=1;j<node.nKids();j++){
+						BasicBlk pred = (((LirLabelRef)node.kid(j).kid(1)).label).basicBlk();
+						replace(node.kid(j),0,xAvail[pred.id]);
+					}
+					kills(node.kid(0),null,avail);
+					break;
+				case Op.SET:
+					replace(node,1,avail);
+					if(node.kid(0).opCode==Op.MEM) replace(node.kid(0),0,avail);
+					kills(node.kid(0),null,avail);
+					break;
+				case Op.CALL:
+					replace(node,0,avail);
+					replace(node,1,avail);
+					if(node.kid(2).nKids()>0){
+						if(node.kid(2).kid(0).opCode==Op.MEM) replace(node.kid(2).kid(0),0,avail);
+						kills(node.kid(2).kid(0),null,avail);
+					}
+					break;
+				case Op.PROLOGUE:
+					for(int i=0;i<node.nKids();i++) kills(node.kid(i),null,avail);
+					break;
+				default:
+					for(int i=0;i<node.nKids();i++) replace(node,i,avail);
+				}
+				if(index!=-1) setBit(avail,index);
+			}
+		}
+	}
+
+
+	/**
+	 * Replace the variables in the n-th kid of the parent by the sources of
+	 * their available copies.
+	 **/
+	private void replace(LirNode parent, int n, long[] avail){
+		LirNode exp = parent.kid(n);
+		if(exp.opCode==Op.REG){
+			long[] v = (long[])fromToCopies.get(exp);
+			if(v==null) return;
+			for(int w=0;w<words;w++){
+				long bits = v[w] & avail[w];
+				if(bits==0) continue;
+				LirNode copy = (LirNode)copies.get((w<<6)+Long.numberOfTrailingZeros(bits));
+				parent.setKid(n, copy.kid(1).makeCopy(env.lir));
+				replaced++;
+				return;
+			}
+			return;
+		}
+		for(int i=0;i<exp.nKids();i++) replace(exp,i,avail);
+	}
+
+
+	private void meetPred(long[] dst, long[][] v, BasicBlk blk){
+		Arrays.fill(dst, -1L);
+		for(BiLink q=blk.predList().first();!q.atEnd();q=q.next()){
+			BasicBlk pred = (BasicBlk)q.elem();
+			for(int w=0;w<words;w++) dst[w] &= v[pred.id][w];
+		}
+	}
+
+
+	private long[][] newVectors(boolean init){
+		long[][] v = new long[idBound][words];
+		if(init){
+			for(int i=0;i<idBound;i++) Arrays.fill(v[i], -1L);
+		}
+		return v;
+	}
+
+
+	/**
+	 * Copy src to dst and return true if dst is changed.
+	 **/
+	private boolean update(long[] dst, long[] src){
+		boolean change = false;
+		for(int w=0;w<words;w++){
+			if(dst[w]!=src[w]){
+				dst[w] = src[w];
+				change = true;
+			}
+		}
+		return change;
+	}
+
+
+	private static void or(long[] dst, long[] src){
+		for(int w=0;w<dst.length;w++) dst[w] |= src[w];
+	}
+
+
+	private static void setBit(long[] v, int i){
+		v[i>>>6] |= 1L<<(i&63);
+	}
+}
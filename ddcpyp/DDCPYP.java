@@ -19,11 +19,14 @@ import java.util.Arrays;
 import java.util.Stack;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 
 class DDCPYP implements LocalTransformer {
   /** The output stream of the compiler **/
     private SsaEnvironment env;
     public static final int THR=SsaEnvironment.OptThr;
+    /** The option to propagate all the copies at once over bit-vectors **/
+    public static final String BIT_VECTOR_OPT = "ssa-ddcpyp-bitvector";
     private Function f;
     private Dominators dom;
     public DDCPYP(SsaEnvironment e,Function func){
@@ -35,44 +38,65 @@ class DDCPYP implements LocalTransformer {
 	}
     
     // for data flow equation
-    private boolean[] checked;
+    private Scratch.Flags checked;
     private BiList subTree;
-    private boolean[] kill;
+    private Scratch.Flags kill;
     private boolean[] nAvail;
     private boolean[] xAvail;
     private HashMap blkToUseList;
+    /** The links of the uses of "from" in each block, taken from the def-use chains **/
+    private HashMap usesByBlk;
     private HashMap expToVar;
     private HashMap varToExp;
     private ArrayList varList;
     private HashMap blkToExpToVarMap;
     private HashMap blkToVarToExpMap;
     private HashMap blkToVarList;
+    /** If not null, the basic blocks whose nodes are rewritten are added to this list **/
+    ArrayList changedBlks;
+    /** The def-use chains of the function, which are kept up to date on every rewrite **/
+    DefUse defUse;
     // for question propagation
-    boolean visited[];
-    boolean result[];
+    Scratch.Flags visited;
+    Scratch.Flags result;
+    private Scratch.Flags pushed;
+    private Scratch.Flags transpVisited;
+    /** The basic blocks which kill the copy of the current question **/
+    private Scratch.Flags defined;
     
     
     public boolean doIt(Function func, ImList args) {
 		f = func;
 		env.println("****************** doing DDCPYP to " + f.symbol.name, SsaEnvironment.MinThr);
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		invoke();
+		profile.end();
 		f.flowGraph().touch();
 		return (true);
 	}
     
     
     private void invoke(){
+    	if(env.opt.isSet(BIT_VECTOR_OPT)){
+    		new BitVectorCPYP(env,f).propagate();
+    		return;
+    	}
     	int mode = 0; // 0 -> use data flow equation. 1 -> use question propagation.
+    	defUse = new DefUse(env,f);
     	for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
     		BasicBlk blk = (BasicBlk)p.elem();
     		for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
     			LirNode node = (LirNode)q.elem();
     			if(node.opCode!=Op.SET || node.kid(0).opCode!=Op.REG || node.kid(1).nKids()>0)continue;
+    			if(isSingleDef(node.kid(0),node.kid(1))){
+    				// In SSA form, every use of the copy is dominated by it.
+    				defUse.replace(node.kid(0),node.kid(1));
+    				continue;
+    			}
     			boolean global = true;
 				// local copy propagation.
 				for(BiLink pp=q.next();!pp.atEnd();pp=pp.next()){
-					LirNode n = (LirNode)pp.elem();
-					if(!cpyp(n,node.kid(0),node.kid(1))){
+					if(!rewrite(blk,pp,node.kid(0),node.kid(1))){
 						global = false;
 						break;
 					}
@@ -83,6 +107,16 @@ class DDCPYP implements LocalTransformer {
     }
     
     
+    /**
+     * Return true if the copy from <- to can be propagated to all the uses of from.
+     * Both of the variables must have only one definition.
+     */
+    private boolean isSingleDef(LirNode from, LirNode to){
+    	if(from.equals(to) || defUse.defs(from)!=1) return false;
+    	return to.opCode!=Op.REG || defUse.defs(to)<=1;
+    }
+    
+    
     /**
      * This method is for DDPRE.
      * @param blk
@@ -95,10 +129,10 @@ class DDCPYP implements LocalTransformer {
     		this.blkToVarList = blkToVarList;
     		setMap(blk);
     	}
+    	if(changedBlks!=null) changedBlks.add(blk);
     	boolean global = true;
     	for(BiLink q=p.next();!q.atEnd();q=q.next()){
-			LirNode n = (LirNode)q.elem();
-			if(!cpyp(n,from,to)){
+			if(!rewrite(blk,q,from,to)){
 				global = false;
 				break;
 			}
@@ -108,10 +142,10 @@ class DDCPYP implements LocalTransformer {
     
     
     public void cpyp(BasicBlk blk, LirNode from, LirNode to, BiLink p, int mode){
+    	if(changedBlks!=null) changedBlks.add(blk);
     	boolean global = true;
     	for(BiLink q=p.next();!q.atEnd();q=q.next()){
-			LirNode n = (LirNode)q.elem();
-			if(!cpyp(n,from,to)){
+			if(!rewrite(blk,q,from,to)){
 				global = false;
 				break;
 			}
@@ -128,6 +162,7 @@ class DDCPYP implements LocalTransformer {
      */
     public void cpyp(BasicBlk blk, LirNode from, LirNode to, int mode){
     	dom = (Dominators) f.require(Dominators.analyzer);
+    	if(defUse==null) defUse = new DefUse(env,f);
     	if(from.nKids()!=0 && to.nKids()!=0){
     		System.out.println("Error");
     		System.out.println("can not "+from+" -> "+to);
@@ -138,6 +173,19 @@ class DDCPYP implements LocalTransformer {
     }
     
     
+    /**
+     * Propagate the copy into the statement at the link, and tell it to the def-use chains.
+     * @return false if the statement kills the copy
+     */
+    private boolean rewrite(BasicBlk blk, BiLink q, LirNode from, LirNode to){
+    	if(defUse==null) return cpyp((LirNode)q.elem(),from,to);
+    	defUse.remove(q);
+    	boolean transp = cpyp((LirNode)q.elem(),from,to);
+    	defUse.add(blk,q);
+    	return transp;
+    }
+    
+    
     public boolean cpyp(LirNode node, LirNode from, LirNode to){
     	to = to.makeCopy(env.lir);
     	switch(node.opCode){
@@ -199,14 +247,11 @@ class DDCPYP implements LocalTransformer {
      */
     private void doItByQuestionPropagation(BasicBlk blk, LirNode from, LirNode to){
 		blkToUseList = new HashMap();
-		visited = new boolean[f.flowGraph().idBound()];
-		result = new boolean[f.flowGraph().idBound()];
-		kill = new boolean[f.flowGraph().idBound()];
-		Arrays.fill(visited, false);
-		Arrays.fill(result, false);
-		Arrays.fill(kill, false);
-    	visited[blk.id] = true;
-    	result[blk.id] = true;
+		clearScratch();
+		usesByBlk = usesByBlk(from);
+		markKills(from,to,defined);
+    	visited.set(blk.id);
+    	result.set(blk.id);
     	qp(blk,blk,from,to);
     	change(blk,from,to);
     }
@@ -224,16 +269,11 @@ class DDCPYP implements LocalTransformer {
     	for(BiLink p=dom.kids[blk.id].first();!p.atEnd();p=p.next()){
     		BasicBlk kid = (BasicBlk)p.elem();
     		if(!checkTransp(blk,kid,from,to)) return false;
-    		ArrayList useList = new ArrayList();
-    		for(BiLink q=kid.instrList().first();!q.atEnd();q=q.next()){
-    			LirNode node = (LirNode)q.elem();
-    			if(checkUse(node,from)) useList.add(node);
-    			if(kill(node,from,to)){
-    				blkToUseList.put(kid, useList);
-    				return false;
-    			}
+    		if(defined.get(kid.id)){
+    			blkToUseList.put(kid, usesBeforeKill(kid,from,to));
+    			return false;
     		}
-    		blkToUseList.put(kid, useList);
+    		if(usesByBlk.containsKey(kid)) blkToUseList.put(kid, usesByBlk.get(kid));
     		if(!qp(top,kid,from,to)) break;
     	}
     	return true;
@@ -242,23 +282,22 @@ class DDCPYP implements LocalTransformer {
     
     private void change(BasicBlk blk, LirNode from, LirNode to){
     	Stack blks = new Stack();
-    	boolean[] checked = new boolean[f.flowGraph().idBound()];
+    	Scratch.Flags checked = pushed;
+    	checked.clear();
     	blks.push(blk);
     	while(!blks.empty()){
     		BasicBlk b = (BasicBlk)blks.pop();
-    		if(!result[b.id] || checked[b.id]) continue;
-    		checked[b.id] = true;
+    		if(!result.get(b.id) || checked.get(b.id)) continue;
+    		checked.set(b.id);
     		for(BiLink p=b.succList().first();!p.atEnd();p=p.next()){
     			BasicBlk succ = (BasicBlk)p.elem();
     			if(blkToExpToVarMap!=null)setMap(succ);
-    			if(!result[succ.id] && !kill[succ.id])continue;
+    			if(!result.get(succ.id) && !kill.get(succ.id))continue;
     			blks.push(succ);
     			ArrayList useList = (ArrayList)blkToUseList.get(succ);
     			if(useList==null) continue;
-    			for(int i=0;i<useList.size();i++){
-    				LirNode node = (LirNode)useList.get(i);
-    				cpyp(node,from,to);
-    			}
+    			if(changedBlks!=null) changedBlks.add(succ);
+    			for(int i=0;i<useList.size();i++) rewrite(succ,(BiLink)useList.get(i),from,to);
     		}
     	}
     }
@@ -272,12 +311,13 @@ class DDCPYP implements LocalTransformer {
      */
     private void doItByDataFlowEquation(BasicBlk blk, LirNode from, LirNode to){
     	blkToUseList = new HashMap();
-    	kill = new boolean[f.flowGraph().idBound()];
+    	clearScratch();
         nAvail = new boolean[f.flowGraph().idBound()];
         xAvail = new boolean[f.flowGraph().idBound()];
         Arrays.fill(nAvail, true);
         Arrays.fill(xAvail, true);
     	createSubTree(blk);
+    	usesByBlk = usesByBlk(from);
     	compLocalProp(blk,from,to);
     	compAvail();
     	change(from,to);
@@ -295,8 +335,8 @@ class DDCPYP implements LocalTransformer {
     		BasicBlk blk = (BasicBlk)blks.pop();
     		for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
     			BasicBlk pred = (BasicBlk)p.elem();
-    			if(pred==e || checked[pred.id]) continue;
-    			checked[pred.id] = true;
+    			if(pred==e || checked.get(pred.id)) continue;
+    			checked.set(pred.id);
     			subTree.add(pred);
     			blks.push(pred);
     		}
@@ -307,22 +347,20 @@ class DDCPYP implements LocalTransformer {
     private void createSubTree(BasicBlk blk){
     	subTree = new BiList();
     	subTree.add(blk);
-    	checked = new boolean[f.flowGraph().idBound()];
-    	Arrays.fill(checked, false);
-    	checked[blk.id] = true;
+    	checked.set(blk.id);
     	Stack blks = new Stack();
     	blks.push(blk);
     	while(!blks.empty()){
     		BasicBlk b = (BasicBlk)blks.pop();
-    		if(!checked[b.id]){
+    		if(!checked.get(b.id)){
     			subTree.add(b);
-    			checked[b.id] = true;
+    			checked.set(b.id);
     		}
     		for(BiLink p=dom.kids[b.id].first();!p.atEnd();p=p.next()){
         		BasicBlk kid = (BasicBlk)p.elem();
-        		if(checked[kid.id]) continue;
+        		if(checked.get(kid.id)) continue;
         		subTree.add(kid);
-        		checked[kid.id] = true;
+        		checked.set(kid.id);
         		addBlk(kid);
         		blks.push(kid);
         	}
@@ -339,35 +377,69 @@ class DDCPYP implements LocalTransformer {
     }
     
     
+    /**
+     * Compute the kills and the uses of the blocks of the sub-CFG from the def-use chains.
+     * Only the blocks which kill the copy are scanned.
+     */
     private void compLocalProp(BasicBlk checkBlk, LirNode from, LirNode to){
+    	markKills(from,to,kill);
+    	kill.set(checkBlk.id, false);
+    	for(Iterator it=usesByBlk.keySet().iterator();it.hasNext();){
+    		BasicBlk blk = (BasicBlk)it.next();
+    		if(blk==checkBlk || !checked.get(blk.id) || kill.get(blk.id))continue;
+    		blkToUseList.put(blk, usesByBlk.get(blk));
+    	}
     	for(BiLink p=subTree.first();!p.atEnd();p=p.next()){
     		BasicBlk blk = (BasicBlk)p.elem();
-    		if(blk==checkBlk)continue;
-    		ArrayList useList = new ArrayList();
-    		for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
-    			LirNode node =(LirNode)q.elem();
-    			if(node.opCode==Op.SET){
-    				if(checkUse(node.kid(1),from)) useList.add(node);
-    				if(node.kid(0).equals(from) || node.kid(0).equals(to)){
-    					kill[blk.id] = true;
-    					break;
-    				}
-    				if(!useList.contains(node) && checkUse(node.kid(0),from)) useList.add(node);
-    			}
-    			if(node.opCode==Op.CALL){
-    				if(checkUse(node.kid(0),from) || checkUse(node.kid(1),from)) useList.add(node);
-    				if(node.kid(2).nKids()>0){
-    					if(node.kid(2).kid(0).equals(from) || node.kid(2).kid(0).equals(to)){
-    						kill[blk.id] = true;
-        					break;
-    					}
-    					if(checkUse(node.kid(2).kid(0),from)) useList.add(node);
-    				}
-    			}
-    			if(checkUse(node,from)) useList.add(node);
+    		if(blk!=checkBlk && kill.get(blk.id)) blkToUseList.put(blk, usesBeforeKill(blk,from,to));
+    	}
+    }
+    
+    
+    /**
+     * Return the links of the statements which use the variable, grouped by the basic blocks.
+     */
+    private HashMap usesByBlk(LirNode var){
+    	HashMap map = new HashMap();
+    	ArrayList uses = defUse.uses(var);
+    	for(int i=0;i<uses.size();i++){
+    		DefUse.Use use = (DefUse.Use)uses.get(i);
+    		ArrayList list = (ArrayList)map.get(use.blk);
+    		if(list==null){
+    			list = new ArrayList();
+    			map.put(use.blk, list);
     		}
-    		blkToUseList.put(blk, useList);
+    		list.add(use.link);
     	}
+    	return map;
+    }
+    
+    
+    /**
+     * Set the flags of the basic blocks which have a statement killing "from" or "to".
+     */
+    private void markKills(LirNode from, LirNode to, Scratch.Flags flags){
+    	for(int k=0;k<2;k++){
+    		ArrayList defs = defUse.definitions((k==0) ? from : to);
+    		for(int i=0;i<defs.size();i++){
+    			DefUse.Use def = (DefUse.Use)defs.get(i);
+    			if(kill(def.node(),from,to)) flags.set(def.blk.id);
+    		}
+    	}
+    }
+    
+    
+    /**
+     * Return the links of the statements which use "from" up to the first kill in the block.
+     */
+    private ArrayList usesBeforeKill(BasicBlk blk, LirNode from, LirNode to){
+    	ArrayList useList = new ArrayList();
+    	for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+    		LirNode node = (LirNode)q.elem();
+    		if(checkUse(node,from)) useList.add(q);
+    		if(kill(node,from,to)) break;
+    	}
+    	return useList;
     }
     
     
@@ -385,7 +457,7 @@ class DDCPYP implements LocalTransformer {
     					break;
     				}
         		}
-        		boolean x = n && !kill[blk.id];
+        		boolean x = n && !kill.get(blk.id);
         		if(nAvail[blk.id]!=n || xAvail[blk.id]!=x){
         			xAvail[blk.id] = x;
         			nAvail[blk.id] = n;
@@ -402,35 +474,31 @@ class DDCPYP implements LocalTransformer {
     		if(!nAvail[blk.id])continue;
     		ArrayList useList = (ArrayList)blkToUseList.get(blk);
     		if(useList!=null){
-    			for(int i=0;i<useList.size();i++){
-    				LirNode node = (LirNode)useList.get(i);
-    				cpyp(node,from,to);
-    			}
+    			if(changedBlks!=null) changedBlks.add(blk);
+    			for(int i=0;i<useList.size();i++) rewrite(blk,(BiLink)useList.get(i),from,to);
     		}
     	}
     }
     
     
     private boolean checkTransp(BasicBlk top, BasicBlk kid, LirNode from, LirNode to){
-    	boolean[] visited = new boolean[f.flowGraph().idBound()]; 
+    	Scratch.Flags visited = transpVisited;
+    	visited.clear();
     	for(BiLink p=top.succList().first();!p.atEnd();p=p.next()){
     		BasicBlk succ = (BasicBlk)p.elem();
-    		if(succ==kid || visited[succ.id]) continue;
+    		if(succ==kid || visited.get(succ.id)) continue;
     		if(!checkTransp(succ,kid,from,to,visited)) return false;
     	}
     	return true;
     }
     
     
-    private boolean checkTransp(BasicBlk blk, BasicBlk dst, LirNode from, LirNode to, boolean[] visited){
-    	visited[blk.id] = true;
-    	for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
-    		LirNode node = (LirNode)p.elem();
-    		if(kill(node,from,to)) return false;
-    	}
+    private boolean checkTransp(BasicBlk blk, BasicBlk dst, LirNode from, LirNode to, Scratch.Flags visited){
+    	visited.set(blk.id);
+    	if(defined.get(blk.id)) return false;
     	for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
     		BasicBlk succ = (BasicBlk)p.elem();
-    		if(succ==dst || visited[succ.id]) continue;
+    		if(succ==dst || visited.get(succ.id)) continue;
     		if(!checkTransp(succ,dst,from,to,visited)) return false;
     	}
     	return true;
@@ -444,6 +512,29 @@ class DDCPYP implements LocalTransformer {
     }
     
     
+    /**
+     * Clear the scratch of the question. The scratch is allocated once per function.
+     */
+    private void clearScratch(){
+    	int idBound = f.flowGraph().idBound();
+    	if(visited==null || visited.size()!=idBound){
+    		visited = new Scratch.Flags(idBound);
+    		result = new Scratch.Flags(idBound);
+    		kill = new Scratch.Flags(idBound);
+    		checked = new Scratch.Flags(idBound);
+    		pushed = new Scratch.Flags(idBound);
+    		transpVisited = new Scratch.Flags(idBound);
+    		defined = new Scratch.Flags(idBound);
+    		return;
+    	}
+    	visited.clear();
+    	result.clear();
+    	kill.clear();
+    	checked.clear();
+    	defined.clear();
+    }
+    
+    
     /**
      * This method is for DDPRE.
      * @param blk
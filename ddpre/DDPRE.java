@@ -39,11 +39,14 @@ public class DDPRE implements LocalTransformer {
 	private SsaSymTab sstab;
 	LirNode preTmp;
 	
-	boolean[] visited;
-	boolean[] result;
+	Scratch.Flags visited;
+	Scratch.Flags result;
 	boolean[] killBlk;
-	boolean[] isAvail;
-	boolean[] isReal;
+	Scratch.Flags isAvail;
+	Scratch.Flags isReal;
+	/** The scratch of checkAnt and insert **/
+	Scratch.Flags antVisited;
+	Scratch.Flags inserted;
 	
 	int idBound;
 	int exprPos;
@@ -61,8 +64,16 @@ public class DDPRE implements LocalTransformer {
 	LirNode insertNode;
 	
 	ArrayList localEliminateRedundantBlks;
+	/** The answers of the questions shared among the equal expressions **/
+	QueryCache cache;
+	/** The def-use chains of the function, which the copy propagation finds the uses in **/
+	DefUse defUse;
 	
 	public static final String DDPRE = "_ddpre";
+	/** The local properties of an expression: computed in the block, killed in the block, or transparent **/
+	static final int AVAILABLE = 1;
+	static final int KILLED = 2;
+	static final int TRANSPARENT = 3;
 
 	int preNum;
 	
@@ -144,9 +155,14 @@ public class DDPRE implements LocalTransformer {
 			if(kill(n,node,vars)){
 				break;
 			}else if(node.opCode==Op.SET && node.kid(1).equals(n.kid(1))){
+				defUse.remove(p);
 				n.setKid(1, node.kid(0).makeCopy(env.lir));
-				if(node.kid(0).opCode==Op.REG && node.kid(1).opCode==Op.REG)
+				defUse.add(blk,p);
+				cache.invalidate(blk);
+				if(node.kid(0).opCode==Op.REG && node.kid(1).opCode==Op.REG){
 					ddcpyp.cpyp(blk,node.kid(0),node.kid(1),p,1,blkToExpToVarMap,blkToVarToExpMap,blkToVarList);
+					cache.invalidate(ddcpyp.changedBlks);
+				}
 				return true;
 			}
 		}
@@ -175,14 +191,10 @@ public class DDPRE implements LocalTransformer {
 			ArrayList vars = new ArrayList();
 			collectVars(node.kid(1),vars);
 			if(checkTransp(node,vars,p)){
-				visited = new boolean[idBound];
-				result = new boolean[idBound];
-				isAvail = new boolean[idBound];
-				isReal = new boolean[idBound];
-				Arrays.fill(isAvail, false);
-				Arrays.fill(isReal, false);
-				Arrays.fill(visited, false);
-				Arrays.fill(result, false);
+				visited.clear();
+				result.clear();
+				isAvail.clear();
+				isReal.clear();
 				insertBlk = new ArrayList();
 				exprBlk = blk;
 				exprPos = blk.instrList().length()-num+1;
@@ -220,11 +232,11 @@ public class DDPRE implements LocalTransformer {
 		if(blk!=f.flowGraph().entryBlk()){
 			for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
 				BasicBlk pred = (BasicBlk)p.elem();
-				if(visited[pred.id]){
-					if(result[pred.id]){
-						if(isAvail[pred.id]){
+				if(visited.get(pred.id)){
+					if(result.get(pred.id)){
+						if(isAvail.get(pred.id)){
 							True = true;
-							if(isReal[pred.id])Real = true;
+							if(isReal.get(pred.id))Real = true;
 						}else{
 							False = true;
 							blks.add(pred);
@@ -233,7 +245,7 @@ public class DDPRE implements LocalTransformer {
 						True = true;
 					}
 				}else if(pred==exprBlk){
-					result[pred.id] = true;
+					result.set(pred.id);
 					boolean avail = true;
 					int num=0;
 					for(BiLink q=pred.instrList().last();!q.atEnd();q=q.prev()){
@@ -253,26 +265,26 @@ public class DDPRE implements LocalTransformer {
 					if(avail){
 						True = true;
 						Real = true;
-						isAvail[pred.id] = true;
-						isReal[pred.id] = true;
+						isAvail.set(pred.id);
+						isReal.set(pred.id);
 					}else{
 						blks.add(pred);
 					}
 				}else{
 					if(local(node,pred,vars)){
 						True = true;
-						if(isReal[pred.id])Real = true;
+						if(isReal.get(pred.id))Real = true;
 					}else{
 						False = true;
 						blks.add(pred);
 					}
-					result[pred.id] = true;
+					result.set(pred.id);
 				}
 			}
 		}
 		
-		result[blk.id] = true;
-		visited[blk.id] = true;
+		result.set(blk.id);
+		visited.set(blk.id);
 		
 		if(True){
 			if(False){
@@ -287,8 +299,8 @@ public class DDPRE implements LocalTransformer {
 				}
 				insertBlk.addAll(blks);
 			}
-			isAvail[blk.id] = true;
-			if(Real)isReal[blk.id] = true;
+			isAvail.set(blk.id);
+			if(Real)isReal.set(blk.id);
 			return true;
 		}else{
 			return false;
@@ -297,38 +309,54 @@ public class DDPRE implements LocalTransformer {
 	
 	
 	boolean local(LirNode node, BasicBlk blk, ArrayList vars){
-	    visited[blk.id] = true;
+	    visited.set(blk.id);
 	    
 	    HashMap expToVar = getBlkETVMap(blk);
 	    ArrayList varList = getBlkVarList(blk);
 	    
-	    if(expToVar.containsKey(node.kid(1))){
+	    int local = localProperty(node.kid(1),blk,vars,expToVar,varList);
+	    
+	    if(local==AVAILABLE){
+	    	insertBlk.add(blk);
+	    	isAvail.set(blk.id);
+	    	isReal.set(blk.id);
+	    	return true;
+	    }else if(local==KILLED){
+	    	return false;
+	    }else{
+	    	return propagate(node,blk,vars);
+	    }
+	    
+	}
+	
+	
+	/**
+	 * Return AVAILABLE if the expression is computed in the basic block and
+	 * available at the exit, KILLED if an operand is changed in the block,
+	 * or TRANSPARENT.
+	 **/
+	int localProperty(LirNode expr, BasicBlk blk, ArrayList vars, HashMap expToVar, ArrayList varList){
+	    if(expToVar.containsKey(expr)){
 	    	HashMap varToExp = getBlkVTEMap(blk);
 	    	for(int i=(varList.size()-1);i>=0;i--){
 	    		LirNode var = (LirNode)varList.get(i);
-	    		if(vars.contains(var) || (node.kid(1).opCode==Op.MEM && var.opCode==Op.CALL || var.opCode==Op.MEM))break;
+	    		if(vars.contains(var) || (expr.opCode==Op.MEM && var.opCode==Op.CALL || var.opCode==Op.MEM))break;
 	    		LirNode exp = (LirNode)varToExp.get(var);
-	    		if(exp!=null && exp.equals(node.kid(1))){
-	    			insertBlk.add(blk);
-	    			isAvail[blk.id] = true;
-	    			isReal[blk.id] = true;
-	    			return true;
-	    		}
+	    		if(exp!=null && exp.equals(expr)) return AVAILABLE;
 	    	}
-	    	return false;
+	    	return KILLED;
 	    }else{
-	    	if(node.kid(1).opCode==Op.MEM && killBlk[blk.id]){
-	    		return false;
+	    	if(expr.opCode==Op.MEM && killBlk[blk.id]){
+	    		return KILLED;
 	    	}
 	    	for(int i=0;i<vars.size();i++){
 	    		LirNode var = (LirNode)vars.get(i);
 	    		if(varList.contains(var)){
-	    			return false;
+	    			return KILLED;
 	    		}
 	    	}
-	    	return propagate(node,blk,vars);
+	    	return TRANSPARENT;
 	    }
-	    
 	}
 	
 	
@@ -399,21 +427,36 @@ public class DDPRE implements LocalTransformer {
 	
 		
 	boolean checkAnt(LirNode exp, BasicBlk blk, ArrayList vars){
-		boolean[] visited = new boolean[idBound];
+		int skip = -1;
+		for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
+			if(exprBlk==p.elem())skip = exprBlk.id;
+		}
+		Boolean known = cache.get(exp,blk,skip);
+		if(known!=null)return known.booleanValue();
+		int changes = cache.changes();
+		Scratch.Flags visited = antVisited;
+		visited.clear();
+		boolean ant = true;
 		for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
 			BasicBlk succ = (BasicBlk)p.elem();
-			if(visited[succ.id] || exprBlk==succ)continue;
-			if(!checkAnt(exp,succ,vars,visited))return false;
+			if(visited.get(succ.id) || exprBlk==succ)continue;
+			if(!checkAnt(exp,succ,vars,visited)){
+				ant = false;
+				break;
+			}
 		}
-		return true;
+		if(changes==cache.changes()){
+			cache.put(exp.makeCopy(env.lir),blk,skip,ant,visited);
+		}
+		return ant;
 	}
 	
 	
-	boolean checkAnt(LirNode exp, BasicBlk blk, ArrayList vars, boolean visited[]){
+	boolean checkAnt(LirNode exp, BasicBlk blk, ArrayList vars, Scratch.Flags visited){
 		HashMap expToVar = getBlkETVMap(blk);
 		ArrayList varList = getBlkVarList(blk);
 		boolean memExp = (exp.opCode==Op.MEM);
-		visited[blk.id] = true;
+		visited.set(blk.id);
 		if(expToVar.containsKey(exp)){
 			LirNode var = (LirNode)expToVar.get(exp);
 			for(int i=0;i<varList.size();i++){
@@ -441,7 +484,7 @@ public class DDPRE implements LocalTransformer {
 				}
 				for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
 					BasicBlk succ = (BasicBlk)p.elem();
-					if(visited[succ.id])continue;
+					if(visited.get(succ.id))continue;
 					if(!checkAnt(exp,succ,vars,visited)){
 						return false;
 					}
@@ -455,11 +498,10 @@ public class DDPRE implements LocalTransformer {
 	
 	
 	void insert(LirNode node, LirNode newNode, ArrayList vars){
-		boolean[] inserted = new boolean[idBound];
-		Arrays.fill(inserted, false);
+		inserted.clear();
 		for(int i=0;i<insertBlk.size();i++){
 			BasicBlk blk = (BasicBlk)insertBlk.get(i);
-			if(inserted[blk.id])continue;
+			if(inserted.get(blk.id))continue;
 			boolean insert = false;
 			LirNode insertNode = newNode.makeCopy(env.lir);
 			
@@ -473,7 +515,7 @@ public class DDPRE implements LocalTransformer {
 				}else if(n.opCode==Op.SET){
 					if(n.kid(1).equals(newNode.kid(1))){
 						insert = true;
-						p.addBefore(insertNode.makeCopy(env.lir));
+						defUse.add(blk,p.addBefore(insertNode.makeCopy(env.lir)));
 						int index = varList.indexOf(n.kid(0));
 						varList.add(index, insertNode.kid(0));
 						replace(n,insertNode,blk,p);
@@ -483,7 +525,7 @@ public class DDPRE implements LocalTransformer {
 						if(exp!=null && exp.equals(newNode.kid(1))){
 							insert = true;
 							insertNode.setKid(1, n.kid(0).makeCopy(env.lir));
-							p.addAfter(insertNode.makeCopy(env.lir));
+							defUse.add(blk,p.addAfter(insertNode.makeCopy(env.lir)));
 							int index = varList.indexOf(n.kid(0));
 							varList.add(index+1, insertNode.kid(0));
 							break;
@@ -494,26 +536,33 @@ public class DDPRE implements LocalTransformer {
 			
 			if(!insert){
 				BiLink p=blk.instrList().last();
-				p.addBefore(insertNode.makeCopy(env.lir));
+				defUse.add(blk,p.addBefore(insertNode.makeCopy(env.lir)));
 				varList.add(insertNode.kid(0));
 			}
 			
-			inserted[blk.id] = true;
+			inserted.set(blk.id);
 			HashMap expToVar = getBlkETVMap(blk);
 			expToVar.put(insertNode.kid(1), insertNode.kid(0));
 			varToExp.put(insertNode.kid(0), insertNode.kid(1));
+			cache.invalidate(blk);
 		}
 		insertedNode.add(newNode);
 	}
 	
 	
 	void replace(LirNode node,LirNode newNode, BasicBlk blk, BiLink p){
+		defUse.remove(p);
 		if(newNode.opCode==Op.REG){
 			node.setKid(1, newNode);
 		}else if(newNode.opCode==Op.SET){
 			node.setKid(1, newNode.kid(0));
 		}
-		if(node.kid(0).opCode==Op.REG && node.kid(1).opCode==Op.REG)ddcpyp.cpyp(blk,node.kid(0),node.kid(1),p,1,blkToExpToVarMap,blkToVarToExpMap,blkToVarList);
+		defUse.add(blk,p);
+		cache.invalidate(blk);
+		if(node.kid(0).opCode==Op.REG && node.kid(1).opCode==Op.REG){
+			ddcpyp.cpyp(blk,node.kid(0),node.kid(1),p,1,blkToExpToVarMap,blkToVarToExpMap,blkToVarList);
+			cache.invalidate(ddcpyp.changedBlks);
+		}
 		
 	}
 	
@@ -526,6 +575,20 @@ public class DDPRE implements LocalTransformer {
 	}
 	
 	
+	/**
+	 * Set the function and its depth first spanning tree, before invoke().
+	 * 
+	 * @param func
+	 *            The current function
+	 **/
+	void init(Function func){
+		f = func;
+		dfst = (DFST) f.require(DFST.analyzer);
+		ddcpyp = new DDCPYP(env, f);
+		print = new Print(env, f);
+	}
+	
+	
 	void invoke(){
 		idBound = f.flowGraph().idBound();
 		killBlk = new boolean[idBound];
@@ -534,6 +597,16 @@ public class DDPRE implements LocalTransformer {
 		blkToVarToExpMap = new HashMap();
 		blkToVarList = new HashMap();
 		insertedNode = new ArrayList();
+		visited = new Scratch.Flags(idBound);
+		result = new Scratch.Flags(idBound);
+		isAvail = new Scratch.Flags(idBound);
+		isReal = new Scratch.Flags(idBound);
+		antVisited = new Scratch.Flags(idBound);
+		inserted = new Scratch.Flags(idBound);
+		cache = new QueryCache(idBound);
+		ddcpyp.changedBlks = new ArrayList();
+		defUse = new DefUse(env,f);
+		ddcpyp.defUse = defUse;
 		BasicBlk[] bVecInOrderOfRPost = dfst.blkVectorByRPost();
 		for (int i=1;i<bVecInOrderOfRPost.length;i++) {
     	    BasicBlk blk = bVecInOrderOfRPost[i];
@@ -551,19 +624,13 @@ public class DDPRE implements LocalTransformer {
 	 *            The list of options
 	 **/
 	public boolean doIt(Function func, ImList args) {
-		f = func;
+		init(func);
 		env.println("****************** doing DDPRE to " + f.symbol.name, SsaEnvironment.MinThr);
-		dfst = (DFST) f.require(DFST.analyzer);
-		ddcpyp = new DDCPYP(env, f);
-		print = new Print(env, f);
-		
-//		long startTime = System.currentTimeMillis();
 		
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		invoke();
-		
-//		System.exit(1);
-//		long stopTime = System.currentTimeMillis();
-//		System.out.println("analyze time = "+(stopTime-startTime));
+		profile.end();
+		env.println("DDPRE query cache of " + f.symbol.name + ": " + cache.statistics(), SsaEnvironment.MsgThr);
 		
 		f.flowGraph().touch();
 		return (true);
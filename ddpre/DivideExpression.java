@@ -54,6 +54,7 @@ class DivideExpression implements LocalTransformer{
   public boolean doIt(Function f,ImList args){
     env.println("****************** doing DIVEX to "+f.symbol.name,
                 SsaEnvironment.MinThr);
+    PassProfiler.Record profile=PassProfiler.begin(env,f,name());
 
     for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
       BasicBlk blk=(BasicBlk)p.elem();
@@ -63,6 +64,7 @@ class DivideExpression implements LocalTransformer{
       }
     }
 
+    profile.end();
     env.println("",THR);
 
     f.touch();
@@ -0,0 +1,152 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+
+/**
+ * Memo of the answers of the question propagation in DDPRE.
+ * An answer of ANT is keyed by the expression and the basic block, and
+ * is shared by all the syntactically equal expressions
+ * of the function. Each answer records the basic blocks which were visited
+ * to get it, and is discarded when one of them is changed.
+ **/
+class QueryCache {
+	private HashMap answers;
+	/** The keys of the answers which depend on each basic block **/
+	private ArrayList[] users;
+	private int hits;
+	private int misses;
+	private int invalidated;
+	/** The number of the changes of the basic blocks **/
+	private int changes;
+
+	QueryCache(int idBound){
+		answers = new HashMap();
+		users = new ArrayList[idBound];
+	}
+
+
+	/**
+	 * Return the answer of ANT, or null if the question is not answered yet.
+	 * @param exp The expression
+	 * @param blk The basic block
+	 * @param aux The id of the basic block which the question skipped, or -1
+	 **/
+	Boolean get(LirNode exp, BasicBlk blk, int aux){
+		Entry entry = (Entry)answers.get(new Key(exp,blk.id,aux));
+		if(entry==null){
+			misses++;
+			return null;
+		}
+		hits++;
+		return Boolean.valueOf(entry.answer);
+	}
+
+
+	/**
+	 * Record the answer of ANT.
+	 * @param visited The basic blocks which were visited to get the answer
+	 **/
+	void put(LirNode exp, BasicBlk blk, int aux, boolean answer, Scratch.Flags visited){
+		Key key = new Key(exp,blk.id,aux);
+		int n = 0;
+		for(int i=0;i<visited.size();i++){
+			if(visited.get(i) || i==blk.id) n++;
+		}
+		Entry entry = new Entry(answer,new int[n]);
+		n = 0;
+		for(int i=0;i<visited.size();i++){
+			if(!visited.get(i) && i!=blk.id) continue;
+			entry.blks[n++] = i;
+			use(i,key);
+		}
+		answers.put(key, entry);
+	}
+
+
+	private void use(int id, Key key){
+		if(users[id]==null) users[id] = new ArrayList();
+		users[id].add(key);
+	}
+
+
+	/**
+	 * Discard the answers which depend on the basic block.
+	 **/
+	void invalidate(BasicBlk blk){
+		changes++;
+		ArrayList keys = users[blk.id];
+		if(keys==null) return;
+		for(int i=0;i<keys.size();i++){
+			if(answers.remove(keys.get(i))!=null) invalidated++;
+		}
+		users[blk.id] = null;
+	}
+
+
+	/**
+	 * Discard the answers which depend on the basic blocks in the list, and clear the list.
+	 **/
+	void invalidate(ArrayList blks){
+		for(int i=0;i<blks.size();i++) invalidate((BasicBlk)blks.get(i));
+		blks.clear();
+	}
+
+
+	/**
+	 * Return the number of the changes of the basic blocks. An answer must not be
+	 * recorded if a basic block was changed while the question was propagated.
+	 **/
+	int changes(){
+		return changes;
+	}
+
+
+	String statistics(){
+		return "hits "+hits+", misses "+misses+", invalidated "+invalidated;
+	}
+
+
+	private static class Entry {
+		private boolean answer;
+		/** The basic blocks which the answer depends on **/
+		private int[] blks;
+
+		Entry(boolean answer, int[] blks){
+			this.answer = answer;
+			this.blks = blks;
+		}
+	}
+
+
+	private static class Key {
+		private LirNode exp;
+		private int blk;
+		private int aux;
+		private int hash;
+
+		Key(LirNode exp, int blk, int aux){
+			this.exp = exp;
+			this.blk = blk;
+			this.aux = aux;
+			hash = (exp.hashCode()*31+blk)*31+aux;
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return hash==k.hash && blk==k.blk && aux==k.aux && exp.equals(k.exp);
+		}
+	}
+}
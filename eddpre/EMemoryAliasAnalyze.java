@@ -15,6 +15,7 @@ import coins.backend.cfg.BasicBlk;
 import coins.backend.ana.Dominators;
 import coins.backend.ana.DominanceFrontiers;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Stack;
 
@@ -27,12 +28,17 @@ import java.util.Stack;
  * The way to translate is the same as for abstract registers. But the phi
  * functions are not inserted. On the marge point of the control flow,
  * the compiler make a new name for the single memory object.
+ * With the option ssa-memssa, the memory is partitioned by the bases of
+ * the addresses and each partition has its own names and memory phis.
+ * See MemorySSA.
  **/
 class EMemoryAliasAnalyze{
   /** The environment of the SSA module **/
   private SsaEnvironment env;
   /** The threshold of the debug print **/
   public static final int THR=SsaEnvironment.OptThr;
+  /** The option to make the memory SSA form partitioned by the bases **/
+  public static final String MEMSSA_OPT="ssa-memssa";
   /** The current function **/
   private Function f;
   /** The work stack **/
@@ -51,6 +57,14 @@ class EMemoryAliasAnalyze{
   private long[] blkRankIn;
   /** The map for CALL node **/
   private Hashtable callMap;
+  /** The statements which have the numbered memory objects **/
+  private ArrayList annotated;
+  /** True if a memory object of the current statement is numbered **/
+  private boolean numbered;
+  /** The memory SSA form, or null if the memory is a single object **/
+  private MemorySSA mssa;
+  /** True if the analysis is given to another pass, so annul() visits all the statements **/
+  private boolean shared;
 
   /**
    * Constructor
@@ -63,6 +77,7 @@ class EMemoryAliasAnalyze{
     nextNum=0;
     callMap=new Hashtable();
     stack=new Stack();
+    annotated=new ArrayList();
 
     // initialize the rank of basic block
     blkRankOut=new long[f.flowGraph().idBound()];
@@ -80,13 +95,36 @@ class EMemoryAliasAnalyze{
     // Make a dominator object.
     dom=(Dominators)f.require(Dominators.analyzer);
 
-    setOffset();
-    markMem(f.flowGraph().entryBlk());
+    if(env.opt.isSet(MEMSSA_OPT)){
+      mssa=new MemorySSA(this,f,nextNum-1);
+      offset=new boolean[f.flowGraph().idBound()];
+      for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+        BasicBlk blk=(BasicBlk)p.elem();
+        offset[blk.id]=mssa.hasPhi(blk);
+      }
+    }
+    else setOffset();
+    markMem();
+    if(mssa!=null){
+      mssa.finish();
+      env.println("MAA : "+mssa.partitions()+" memory partitions in "+f.symbol.name,SsaEnvironment.MsgThr);
+    }
 
     f.touch();
 //    f.printIt(env.output);
   }
 
+  /**
+   * Give the analysis to another pass on the function, which may copy the
+   * numbered statements without recording them. The owner of the analysis
+   * still annuls it, and annul() then visits all the statements.
+   * @return This analysis
+   **/
+  EMemoryAliasAnalyze share(){
+    shared=true;
+    return(this);
+  }
+
   /**
    * Return the rank of the specified basic block.
    * @param blk The specified basic block
@@ -100,6 +138,63 @@ class EMemoryAliasAnalyze{
     return(blkRankIn[blk.id]);
   }
 
+  /**
+   * Return the rank of the memory object at the exit of the basic block.
+   * On the memory SSA form, it is the version of the partition of the MEM node.
+   **/
+  long blkRankOut(BasicBlk blk,LirNode mem){
+    return((mssa!=null) ? mssa.rankOut(blk,mem) : blkRankOut[blk.id]);
+  }
+
+  /**
+   * Return the rank of the memory object at the entry of the basic block.
+   * On the memory SSA form, it is the version of the partition of the MEM node.
+   **/
+  long blkRankIn(BasicBlk blk,LirNode mem){
+    return((mssa!=null) ? mssa.rankIn(blk,mem) : blkRankIn[blk.id]);
+  }
+
+  /**
+   * Return true if the memory is partitioned on the memory SSA form.
+   **/
+  boolean isMemorySSA(){
+    return(mssa!=null);
+  }
+
+  /**
+   * Return true if the basic block may change the MEM node.
+   **/
+  boolean clobbers(BasicBlk blk,LirNode mem){
+    if(mssa!=null) return(mssa.clobbers(blk,mem));
+    for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
+      LirNode node=(LirNode)p.elem();
+      if((node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) || node.opCode==Op.CALL)
+        return(true);
+    }
+    return(false);
+  }
+
+  /**
+   * Return true if the store or the CALL may change the MEM node.
+   **/
+  boolean clobbers(LirNode def,LirNode mem){
+    return(mssa==null || mssa.clobbers(def,mem));
+  }
+
+  /**
+   * Return the memory phis of the basic block on the memory SSA form, or null.
+   **/
+  ArrayList memoryPhis(BasicBlk blk){
+    return((mssa!=null) ? mssa.phis(blk) : null);
+  }
+
+  /**
+   * Return a new number of the memory object.
+   **/
+  long newNumber(){
+    return(nextNum++);
+  }
+
   /**
    * If find the assignment to the memory object, increment the offset
    * counter in the dominance frontier of the current basic block.
@@ -107,7 +202,7 @@ class EMemoryAliasAnalyze{
    **/
   private void setOffset(){
     offset=new boolean[f.flowGraph().idBound()];
-    DominanceFrontiers df;
+    final DominanceFrontiers df;
     df=(DominanceFrontiers)f.require(DominanceFrontiers.analyzer);
 
     for(int i=0;i<offset.length;i++) offset[i]=false;
@@ -121,7 +216,7 @@ class EMemoryAliasAnalyze{
            node.opCode==Op.CALL){
           for(BiLink r=df.frontiers[blk.id].first();!r.atEnd();r=r.next()){
             BasicBlk frontier=(BasicBlk)r.elem();
-            markFrontier(frontier);
+            markFrontier(df,frontier);
           }
           break;
         }
@@ -131,19 +226,18 @@ class EMemoryAliasAnalyze{
 
   /**
    * Mark up the dominance frontieres of the specified basic block.
+   * @param df The dominance frontiers
    * @param blk The specified basic block
    **/
-  private void markFrontier(BasicBlk blk){
-    if(offset[blk.id]==true) return;
-    offset[blk.id]=true;
-
-    // mark dominance frontiers recursively.
-    DominanceFrontiers df;
-    df=(DominanceFrontiers)f.require(DominanceFrontiers.analyzer);
-    for(BiLink r=df.frontiers[blk.id].first();!r.atEnd();r=r.next()){
-      BasicBlk frontier=(BasicBlk)r.elem();
-      markFrontier(frontier);
-    }
+  private void markFrontier(DominanceFrontiers df,BasicBlk blk){
+    // mark dominance frontiers iteratively.
+    TreeWalker.walk(df.frontiers,blk,new TreeWalker.PreOrder(){
+        public boolean enter(BasicBlk b){
+          if(offset[b.id]==true) return false;
+          offset[b.id]=true;
+          return true;
+        }
+      });
   }
 
   /**
@@ -165,22 +259,50 @@ class EMemoryAliasAnalyze{
   }
 
   /**
-   * Mark the number to the momery object.
+   * Mark the number to the momery object along the dominator tree.
+   **/
+  private void markMem(){
+    // The number of the suffixes pushed in each basic block
+    // or the mark of the memory SSA form
+    final int[] pushed=new int[f.flowGraph().idBound()];
+    TreeWalker.walk(dom.kids,f.flowGraph().entryBlk(),new TreeWalker.Visitor(){
+        public boolean enter(BasicBlk blk){
+          pushed[blk.id]=markMem(blk);
+          return true;
+        }
+        public void leave(BasicBlk blk){
+          // Pop from stack.
+          if(mssa!=null) mssa.leave(pushed[blk.id]);
+          else for(int i=0;i<pushed[blk.id];i++) stack.pop();
+        }
+      });
+  }
+
+  /**
+   * Mark the number to the momery object in the basic block.
    * @param blk The current basic block
+   * @return The number of the suffixes pushed to the stack,
+   *         or the mark of the memory SSA form
    **/
-  private void markMem(BasicBlk blk){
+  private int markMem(BasicBlk blk){
     int count=0;
 
-    if(offset[blk.id]){
-      LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,ImList.Empty);
-      count++;
-      stack.push(suffix);
+    if(mssa!=null){
+      count=mssa.enter(blk);
+      blkRankIn[blk.id]=mssa.rankIn(blk,null);
+    }
+    else{
+      if(offset[blk.id]){
+        LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,ImList.Empty);
+        count++;
+        stack.push(suffix);
+      }
+      blkRankIn[blk.id]=nextNum-1;
     }
-
-    blkRankIn[blk.id]=nextNum-1;
 
     for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
       LirNode node=(LirNode)p.elem();
+      numbered=false;
       if(node.opCode!=Op.PHI && node.opCode!=Op.PROLOGUE){
         // If the current node is a assign node, mark the number which 
         // are only right hand side of the node.
@@ -196,9 +318,7 @@ class EMemoryAliasAnalyze{
               replaceMem(node.kid(2),node,2);
 
             callMap.put(new Long(node.id),new Long(nextNum));
-            LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,
-                                          ImList.Empty);
-            stack.push(suffix);
+            define(null);
             count++;
 
             break;
@@ -220,20 +340,20 @@ class EMemoryAliasAnalyze{
       if(node.opCode==Op.PROLOGUE){
         for(int i=1;i<node.nKids();i++){
           if(node.kid(i).opCode==Op.MEM){
-            LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,ImList.Empty);
+            LirNode suffix=define(node.kid(i));
             count++;
             LirNode copyNode=node.kid(i).kid(0).makeCopy(env.lir);
             LirNode newMem=env.lir.operator(Op.MEM,node.kid(i).type,
                                             copyNode,suffix,node.kid(i).opt);
             node.setKid(i,newMem);
-            stack.push(suffix);
+            numbered=true;
           }
         }
       }
       else if((node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) ||
               (node.opCode==Op.CALL && node.kid(2).nKids()>0 &&
                node.kid(2).kid(0).opCode==Op.MEM)){
-        LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,ImList.Empty);
+        LirNode suffix=define((node.opCode==Op.SET) ? node.kid(0) : node.kid(2).kid(0));
         count++;
         if(node.opCode==Op.SET){
           LirNode copyNode=node.kid(0).kid(0).makeCopy(env.lir);
@@ -248,22 +368,34 @@ class EMemoryAliasAnalyze{
                                           node.kid(2).kid(0).opt);
           node.kid(2).setKid(0,newMem);
         }
-        stack.push(suffix);
+        numbered=true;
       }
+      if(numbered) annotated.add(node);
     }
 
-    blkRankOut[blk.id]=nextNum-1;
+    if(mssa!=null){
+      mssa.exit(blk);
+      blkRankOut[blk.id]=mssa.rankOut(blk,null);
+      if(mssa.phis(blk)!=null)
+        env.println("MAA : blk "+blk.id+" "+mssa.phis(blk),SsaEnvironment.AllThr);
+    }
+    else blkRankOut[blk.id]=nextNum-1;
 //    env.output.println("blk "+blk.id+" --> "+blkRankOut[blk.id]);
 
-    // Mark recursively.
-    for(BiLink p=dom.kids[blk.id].first();!p.atEnd();p=p.next()){
-      markMem((BasicBlk)p.elem());
-    }
+    return(count);
+  }
 
-    // Pop from stack.
-    if(count>0){
-      for(int i=0;i<count;i++) stack.pop();
-    }
+  /**
+   * Make a new number of the memory object for the store or the CALL.
+   * @param mem The MEM node stored to, or null for a CALL
+   * @return The suffix of the new number
+   **/
+  private LirNode define(LirNode mem){
+    long num=nextNum++;
+    LirNode suffix=env.lir.iconst(Type.UNKNOWN,num,ImList.Empty);
+    if(mssa!=null) mssa.define(mem,num);
+    else stack.push(suffix);
+    return(suffix);
   }
 
   /**
@@ -280,13 +412,16 @@ class EMemoryAliasAnalyze{
         replaceMem(root.kid(i),root,i);
       }
       if(parent!=null && root.opCode==Op.MEM){
-        LirNode suffix=(LirNode)stack.peek();
+        LirNode suffix=(mssa!=null) ?
+          env.lir.iconst(Type.UNKNOWN,mssa.version(root),ImList.Empty) :
+          (LirNode)stack.peek();
         LirNode newMem=env.lir.operator(Op.MEM,root.type,root.kid(0),
                                         suffix.makeCopy(env.lir),
                                         root.opt);
         env.println("MAA : "+root+" ---> "+newMem,SsaEnvironment.AllThr);
         parent.setKid(place,newMem);
         root=newMem;
+        numbered=true;
       }
     }
   }
@@ -295,6 +430,13 @@ class EMemoryAliasAnalyze{
 	  return env.lir.iconst(Type.UNKNOWN,blkRankOut[blk.id],ImList.Empty);
   }
   
+  /**
+   * Return the number of the MEM node at the exit of the basic block.
+   **/
+  public LirNode getIndex(BasicBlk blk, LirNode mem){
+	  return env.lir.iconst(Type.UNKNOWN,blkRankOut(blk,mem),ImList.Empty);
+  }
+  
   
   public LirNode makeNewMem(LirNode root){
 	  LirNode suffix=env.lir.iconst(Type.UNKNOWN,nextNum++,ImList.Empty);
@@ -303,19 +445,40 @@ class EMemoryAliasAnalyze{
               root.opt);
   }
 
+  /**
+   * Record the statement which an optimizer inserted into the function.
+   * The statement must be recorded if it has the memory objects numbered
+   * by this analysis, e.g. by makeNewMem or by copying a numbered statement,
+   * so that annul() removes the numbers from it.
+   * @param node The inserted statement
+   **/
+  void recordInsertion(LirNode node){
+    annotated.add(node);
+  }
+
   /**
    * Annuling the information about the alias analysis from all the 
    * memory object. This method MUST be called after optmizing useing
    * the information about the alias analysis.
+   * Only the statements which this analysis numbered or which were recorded
+   * by recordInsertion are visited, unless the analysis was shared with
+   * another pass. Only the numbered MEM nodes are rebuilt.
    **/
   void annul(){
-    for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
-      BasicBlk blk=(BasicBlk)p.elem();
-      for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
-        LirNode node=(LirNode)q.elem();
-        memAsBefore(node,null,0);
+    if(shared){
+      for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+        BasicBlk blk=(BasicBlk)p.elem();
+        for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+          memAsBefore((LirNode)q.elem(),null,0);
+        }
+      }
+    }
+    else{
+      for(int i=0;i<annotated.size();i++){
+        memAsBefore((LirNode)annotated.get(i),null,0);
       }
     }
+    annotated.clear();
     f.touch();
   }
 
@@ -327,7 +490,7 @@ class EMemoryAliasAnalyze{
    **/
   private void memAsBefore(LirNode root,LirNode parent,int place){
     if(root!=null){
-      if(parent!=null && root.opCode==Op.MEM){
+      if(parent!=null && root.opCode==Op.MEM && root.nKids()>1){
         LirNode newMem=env.lir.operator(Op.MEM,root.type,root.kid(0),
                                         root.opt);
         env.println("MAA : annul "+newMem,SsaEnvironment.AllThr);
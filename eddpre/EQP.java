@@ -8,6 +8,7 @@ package coins.ssa;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Stack;
 
 import coins.backend.Data;
 import coins.backend.Function;
@@ -73,16 +74,27 @@ public class EQP implements LocalTransformer {
 	
 	HashSet dependPhiSet;
 	BasicBlk exprBlk;
-	HashMap visited;
-	HashSet[] result;
-	int[] avail;
-	HashSet[] isReal;
-	HashSet[] isSelf;
+	/** The scratch of the current question, which is reused by all the questions **/
+	Scratch.Ints visited;
+	Scratch.IntSets result;
+	Scratch.Ints avail;
+	Scratch.IntSets isReal;
+	Scratch.IntSets isSelf;
+	Scratch.Flags dSafeVisited;
 	HashMap blkToNewNode;
 	public ArrayList<LirNode> newNodes;
-	public HashMap<LirNode, BasicBlk> insertNodeToBlk;
-	public int[] blkVal;
+	/** The nodes inserted by the current question and their basic blocks **/
+	InsertionIndex inserted;
+	public Scratch.Ints blkVal;
+	/** The id of the value expression of the question at the exit of each block **/
+	Scratch.Ints blkVid;
 	public boolean[] kill;
+	/** The budget of the questions of the current function **/
+	QueryBudget budget;
+	/** The profile-guided speculation of the current function **/
+	Speculation speculation;
+	/** The def-use chains of the function, which are shared with GVN **/
+	DefUse defUse;
 	int mode;
 	
 	/**
@@ -92,7 +104,9 @@ public class EQP implements LocalTransformer {
 	 **/
 	public boolean doIt(Function function, ImList args) {
 		f = function;
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		invoke(1);
+		profile.end();
 		f.flowGraph().touch();
 		return (true);
 	}
@@ -104,14 +118,32 @@ public class EQP implements LocalTransformer {
 	 * @param mode
 	 */
 	public void invoke(int mode){
-		set();
+		invoke(mode,null);
+	}
+	
+	/**
+	 * Optimize with the memory alias analysis which the caller already made on
+	 * the function. The caller keeps the analysis and annuls it afterwards.
+	 * @param mode
+	 * @param shared The memory alias analysis, or null to make a new one
+	 */
+	public void invoke(int mode, EMemoryAliasAnalyze shared){
+		set(shared);
 		gvn(mode);
 		eliminate(mode);
-		alias.annul();
+		if(shared==null) alias.annul();
+		if(budget.anyExhausted())
+			env.println("EQP of "+f.symbol.name+": questions exhausted the budget: "+budget, SsaEnvironment.MsgThr);
+		if(speculation.speculated>0)
+			env.println("EQP of "+f.symbol.name+": speculation: "+speculation, SsaEnvironment.MsgThr);
 	}
 	
 	public void set(){
-		alias=new EMemoryAliasAnalyze(env,f);
+		set(null);
+	}
+	
+	void set(EMemoryAliasAnalyze shared){
+		alias = (shared!=null) ? shared.share() : new EMemoryAliasAnalyze(env,f);
 		dom = (Dominators) f.require(Dominators.analyzer);
 		dfst = (DFST) f.require(DFST.analyzer);
 		bVecInOrderOfRPost = dfst.blkVectorByRPost();
@@ -120,59 +152,82 @@ public class EQP implements LocalTransformer {
 		idBound = f.flowGraph().idBound();
 		dependPhiSet = new HashSet();
 		kill = new boolean[idBound];
+		budget = new QueryBudget(env);
+		speculation = new Speculation(env,f);
+		defUse = new DefUse(env,f);
 		collectInformation();
 	}
 	
 	public void gvn(int mode){
-		gvn.gvn(mode);
+		gvn.gvn(mode,alias,defUse);
 	}
 	
 	private void collectInformation(){
+		Stack vars = new Stack();
 		for(int i=1;i<bVecInOrderOfRPost.length; i++) {
 			BasicBlk blk = bVecInOrderOfRPost[i];
 			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
 				LirNode node = (LirNode)p.elem();
 				if(node.opCode==Op.CALL || node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) kill[blk.id] = true;
-				if(node.opCode==Op.PHI) dependPhiSet.add(node.kid(0));
-				if(node.opCode==Op.SET && node.kid(0).opCode==Op.REG){
-					if(node.kid(1).nKids()==0){
-						if(dependPhiSet.contains(node.kid(1))) dependPhiSet.add(node.kid(0));
-					}else{
-						for(int j=0;j<node.kid(1).nKids();j++){
-							if(dependPhiSet.contains(node.kid(1).kid(j))){
-								dependPhiSet.add(node.kid(0));
-								break;
-							}
-						}
-					}
-				}
+				if(node.opCode==Op.PHI && dependPhiSet.add(node.kid(0))) vars.push(node.kid(0));
+			}
+		}
+		// the variables copied or computed from the phis are found through the def-use chains.
+		while(!vars.empty()){
+			LirNode var = (LirNode)vars.pop();
+			ArrayList uses = defUse.uses(var);
+			for(int i=0;i<uses.size();i++){
+				LirNode node = ((DefUse.Use)uses.get(i)).node();
+				if(node.opCode!=Op.SET || node.kid(0).opCode!=Op.REG || !isOperand(var,node.kid(1))) continue;
+				if(dependPhiSet.add(node.kid(0))) vars.push(node.kid(0));
 			}
 		}
 	}
 	
+	private boolean isOperand(LirNode var, LirNode exp){
+		if(exp.nKids()==0) return exp.equals(var);
+		for(int j=0;j<exp.nKids();j++){
+			if(exp.kid(j).equals(var)) return true;
+		}
+		return false;
+	}
+	
 	public void setVarsToGCM(BasicBlk blk, int val){
-		result = new HashSet[idBound];
-		avail = new int[idBound];
-		isReal = new HashSet[idBound];
-		isSelf = new HashSet[idBound];
-		visited = new HashMap(idBound);
+		if(visited==null || visited.size()!=idBound){
+			result = new Scratch.IntSets(idBound);
+			avail = new Scratch.Ints(idBound,0);
+			isReal = new Scratch.IntSets(idBound);
+			isSelf = new Scratch.IntSets(idBound);
+			visited = new Scratch.Ints(idBound,0);
+			blkVal = new Scratch.Ints(idBound,0);
+			blkVid = new Scratch.Ints(idBound,-1);
+			dSafeVisited = new Scratch.Flags(idBound);
+			inserted = new InsertionIndex(idBound);
+		}else{
+			result.clear();
+			avail.clear();
+			isReal.clear();
+			isSelf.clear();
+			visited.clear();
+			blkVal.clear();
+			blkVid.clear();
+			inserted.clear();
+		}
 		exprBlk = blk;
-		insertNodeToBlk = new HashMap();
 		newNodes = new ArrayList();
 		blkToNewNode = new HashMap();
-		blkVal = new int[idBound];
 	}
 	
 	private void eliminate(int mode){
 		HashSet insertNodes = new HashSet();
 		for(int i=1;i<bVecInOrderOfRPost.length; i++) {
 			BasicBlk blk = bVecInOrderOfRPost[i];
-			boolean kill = false;
-			HashMap valueMap = new HashMap();
-			HashSet blkValueMap = new HashSet();
+			ArrayList kills = new ArrayList();
+			IntMap valueMap = new IntMap();
+			SparseBitSet blkValueMap = new SparseBitSet();
 			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
 				LirNode node = (LirNode)p.elem();
-				if(node.opCode==Op.CALL || node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) kill = true;
+				if(node.opCode==Op.CALL || node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) kills.add(node);
 				if(node.opCode==Op.PHI){
 					int val = gvn.getValue(node.kid(0));
 					blkValueMap.add(val);
@@ -213,7 +268,9 @@ public class EQP implements LocalTransformer {
 				if(valueMap.containsKey(val)){
 					if(node.kid(1).nKids()>0 && (mode==1 || mode==2 && node.kid(1).opCode!=Op.MEM)){
 						LirNode pred = (LirNode)valueMap.get(val);
+						defUse.remove(p);
 						node.setKid(1, pred.makeCopy(env.lir));
+						defUse.add(blk,p);
 					}
 					if(node.kid(0).opCode==Op.REG && node.kid(1).nKids()!=0) valueMap.put(val, node.kid(0));
 					else valueMap.put(val, node.kid(1));
@@ -221,7 +278,7 @@ public class EQP implements LocalTransformer {
 					continue;
 				}
 				
-				if(node.kid(1).nKids()==0 || (kill || mode==2) && node.kid(1).opCode==Op.MEM || mode==3){
+				if(node.kid(1).nKids()==0 || node.kid(1).opCode==Op.MEM && (mode==2 || killed(kills,node.kid(1))) || mode==3){
 					if(node.kid(0).opCode==Op.REG) valueMap.put(val, node.kid(0));
 					else valueMap.put(val, node.kid(1));
 					gvn.setValue(val, node.kid(0), ve, blk);
@@ -231,16 +288,18 @@ public class EQP implements LocalTransformer {
 				
 				setVarsToGCM(blk,val);
 				LirNode copy = node.makeCopy(env.lir);
-				LirNode vnode = node.makeCopy(env.lir);
-				vnode.setKid(1, ve);
+				int vid = gvn.valueExpId(ve);
 				
-				if(propagate(val,vnode,copy,blk) && changeNameNewNodes(node,p))
+				speculation.begin(blk);
+				boolean answer = budget.begin() && propagate(val,vid,copy,blk);
+				if(budget.end() && answer && changeNameNewNodes(node,p))
 					val = changeProg(node,ve,blk,val,p);
 				
 				gvn.setValue(val,node.kid(0),ve,blk);
 				valueMap.put(val, node.kid(0));
 				blkValueMap.add(val);
 				
+				speculation.end(node.kid(1).opCode==Op.REG);
 				if(node.kid(1).opCode==Op.REG) insertNodes.addAll(newNodes);
 				else cancelInsertNode();
 			}
@@ -249,68 +308,75 @@ public class EQP implements LocalTransformer {
 		}
 	}
 	
-	public boolean propagate(int val, LirNode vnode, LirNode node, BasicBlk blk){
+	/**
+	 * Return true if one of the stores or CALLs may change the MEM node.
+	 **/
+	private boolean killed(ArrayList kills, LirNode mem){
+		for(int i=0;i<kills.size();i++){
+			if(alias.clobbers((LirNode)kills.get(i),mem)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Propagate the question whether the value is available at the entry of the block.
+	 * @param val The value number of the expression
+	 * @param vid The id of the value expression in the value table of GVN
+	 * @param node The statement of the question. Its operands are not changed
+	 * for the predecessors, and the statement to be inserted is made from vid
+	 * only when the insertion is decided.
+	 * @param blk
+	 * @return
+	 */
+	public boolean propagate(int val, int vid, LirNode node, BasicBlk blk){
 		int True = 0;
 		int Real = 0;
 		int Self = 0;
 		ArrayList blks = new ArrayList(blk.predList().length());
-		HashMap newNodes = new HashMap();
+		LirNode expr = node.kid(1);
 		for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
 			BasicBlk pred = (BasicBlk)p.elem();
-			LirNode newNode = node.makeCopy(env.lir);
-			LirNode newVNode = vnode.makeCopy(env.lir);
+			int newVid = vid;
 			
-			// change node for propagating the predecessor node.
+			// change the value expression for propagating to the predecessor.
 			// first, change the index of memory which was assigned by EMemoryAlias.
-			if(node.kid(1).opCode==Op.MEM){
-				LirNode inode = alias.getIndex(pred);
-				LirNode newIndex = gvn.makeVExp(inode,pred).makeCopy(env.lir);
-				newVNode.kid(1).setKid(1, newIndex);
-				node.kid(1).setKid(1, inode);
+			if(expr.opCode==Op.MEM){
+				newVid = gvn.replaceKid(vid, 1, gvn.leafValueId(alias.getIndex(pred,expr),pred));
 			}
+			newVid = gvn.translate(newVid,expr,blk,pred);
 			
-			// make node whose each leaf is changed to its value number.
-			LirNode newVExp = gvn.makeNewValueExp(newVNode.kid(1),node.kid(1),blk,pred);
-			newVNode.setKid(1, newVExp);
-			
-			// make complete node.
-			LirNode newExp = gvn.valueNumberToVariable(newVExp,node.kid(1),pred,null);
-			if(newExp==null){
+			// the expression must be made of the variables of the predecessor.
+			if(!gvn.hasVariables(newVid,expr,pred)){
 				recordResult(val,blk);
 				return false;
 			}
-			if(node.kid(1).opCode==Op.MEM) newExp.setKid(1, node.kid(1).kid(1));
-			
-			newNode.setKid(1, newExp);
-			int newVal = gvn.getValue(newVExp);
+			int newVal = gvn.getValueOfId(newVid);
 			
 			if(newVal==-1){
 				boolean setNewVal = true;
-				if(node.kid(1).opCode==Op.MEM){
-					LirNode tempExp = newVExp.makeCopy(env.lir);
-					tempExp.setKid(1, vnode.kid(1).kid(1));
-					int temp = gvn.getValue(tempExp);
+				if(expr.opCode==Op.MEM){
+					int tempVid = gvn.replaceKid(newVid, 1, gvn.kidId(vid,1));
+					int temp = gvn.getValueOfId(tempVid);
 					if(temp!=-1){
-						newVNode.kid(1).setKid(1, vnode.kid(1).kid(1));
-						newNode.kid(1).setKid(1, node.kid(1).kid(1));
+						newVid = tempVid;
 						newVal = temp;
 						setNewVal = false;
 					}
 				}
 				if(setNewVal){
-					gvn.setValue(gvn.newValue(), newVExp, pred);
-					newVal = gvn.getValue(newVExp);
+					newVal = gvn.newValue();
+					gvn.setValueOfId(newVal, newVid);
 				}
 			}
 			
 			boolean localAnswer;
-			if(visited.containsKey(pred)){
-				if(checkResult(newVal,pred)) localAnswer = (avail[pred.id]==newVal);
-				else localAnswer = (newVal==(Integer)visited.get(pred));
+			if(visited.contains(pred.id)){
+				if(checkResult(newVal,pred)) localAnswer = (avail.get(pred.id)==newVal);
+				else localAnswer = (newVal==visited.get(pred.id));
 			}else{
-				newNodes.put(pred, newNode);
-				blkVal[pred.id] = newVal;
-				localAnswer = local(newVal,newVNode,newNode,pred);
+				blkVid.set(pred.id, newVid);
+				blkVal.set(pred.id, newVal);
+				localAnswer = local(newVal,newVid,node,pred);
 			}
 			
 			if(localAnswer){
@@ -322,20 +388,20 @@ public class EQP implements LocalTransformer {
 			}
 		}
 		recordResult(val,blk);
-		visited.put(blk, val);
+		visited.set(blk.id, val);
 		boolean checkDSafe = mode==2 && Self!=blk.predList().length() || mode==3;
 		if(True>0){
 			if(blks.size()>0){
-				if(Real==0 || checkDSafe && !checkDSafe(val,vnode.kid(1),node.kid(1),blk))return false;
-				insertTempNewNode(newNodes,blks);
+				if(Real==0 || checkDSafe && !checkDSafe(val,vid,expr,blk) && !speculation.allow(expr,blks))return false;
+				if(!insertTempNewNode(node,blks))return false;
 				insertNewTempPhi(val,node,blk);
 				Real = blk.predList().length();
 			}else if(blk.predList().length()>1){
-				if(True!=Real && checkDSafe && !checkDSafe(val,vnode.kid(1),node.kid(1),blk))return false;
+				if(True!=Real && checkDSafe && !checkDSafe(val,vid,expr,blk) && !speculation.allow(expr,blks))return false;
 				insertNewTempPhi(val,node,blk);
 				Real = blk.predList().length();
 			}
-			avail[blk.id] = val;
+			avail.set(blk.id, val);
 			if(Real>0)recordIsReal(val,blk);
 			if(Self==blk.predList().length())recordIsSelf(val,blk);
 			return true;
@@ -343,23 +409,31 @@ public class EQP implements LocalTransformer {
 		return false;
 	}
 	
-	private boolean local(int val, LirNode vnode, LirNode node, BasicBlk blk){
-		visited.put(blk, val);
+	private boolean local(int val, int vid, LirNode node, BasicBlk blk){
+		visited.set(blk.id, val);
 		boolean answer = false;
-		if(gvn.containValue(val,blk) && (node.kid(1).opCode!=Op.MEM || !kill[blk.id] || checkMemKill(val,node,blk))){
-			avail[blk.id] = val;
+		if(gvn.containValue(val,blk) && (node.kid(1).opCode!=Op.MEM || !kill(blk,node.kid(1)) || checkMemKill(val,node,blk))){
+			avail.set(blk.id, val);
 			recordIsReal(val,blk);
 			if(blk==exprBlk)recordIsSelf(val,blk);
 			answer = true;
-		}else if(node.kid(1).opCode==Op.MEM && kill[blk.id]){
+		}else if(node.kid(1).opCode==Op.MEM && kill(blk,node.kid(1))){
 			answer = false;
-		}else if((gvn.reachValue(val, blk) || dependPhi(node.kid(1),blk)) && blk!=exprBlk){
-			answer = propagate(val,vnode,node,blk);
+		}else if((gvn.reachValue(val, blk) || dependPhi(vid,node.kid(1),blk)) && blk!=exprBlk && budget.enter()){
+			answer = propagate(val,vid,node,blk);
+			budget.leave();
 		}
 		recordResult(val,blk);
 		return answer;
 	}
 	
+	/**
+	 * Return true if the basic block may change the MEM node.
+	 **/
+	private boolean kill(BasicBlk blk, LirNode mem){
+		return kill[blk.id] && (!alias.isMemorySSA() || alias.clobbers(blk,mem));
+	}
+	
 	/**
 	 * Check local property of basic block which generate origin query.
 	 * @param val
@@ -373,7 +447,7 @@ public class EQP implements LocalTransformer {
 			if(n.opCode==Op.SET){
 				if(n.kid(0).opCode==Op.MEM){
 					if(gvn.getValue(n.kid(1))==val) return true;
-					else break;
+					else if(alias.clobbers(n,node.kid(1))) break;
 				}else if(gvn.getValue(n.kid(0))==val) return true;
 			}
 			if(n.opCode==Op.CALL) break;
@@ -382,32 +456,44 @@ public class EQP implements LocalTransformer {
 	}
 	
 	public void insertTempNewNode(LirNode node, int val, BasicBlk blk){
-		if(!insertNodeToBlk.containsValue(blk)){
+		if(!inserted.hasNode(blk)){
+			budget.copy();
 			node.setKid(0, createNewVar(node.kid(0),tmpSymName));
 			if(node.kid(1).opCode==Op.MEM) node.setKid(1, alias.makeNewMem(node.kid(1)));
 			node = node.makeCopy(env.lir);
 			newNodes.add(node);
-			insertNodeToBlk.put(node, blk);
+			inserted.put(node, blk);
 			gvn.setValue(val, node.kid(0), blk);
 		}
 	}
 	
-	public void insertTempNewNode(HashMap newNodes, ArrayList blks){
+	/**
+	 * Insert the statement of the question into the blocks, whose operands
+	 * are the variables of each block.
+	 * @return false if some operand has no variable in a block
+	 */
+	public boolean insertTempNewNode(LirNode node, ArrayList blks){
 		for(int i=0;i<blks.size();i++){
 			BasicBlk blk = (BasicBlk)blks.get(i);
-			int val = blkVal[blk.id];
+			int val = blkVal.get(blk.id);
 			if(val==-1) val = gvn.newValue();
-			LirNode node = (LirNode)newNodes.get(blk);
-			insertTempNewNode(node, val, blk);
+			if(inserted.hasNode(blk)) continue;
+			LirNode exp = gvn.materialize(blkVid.get(blk.id),node.kid(1),blk,null);
+			if(exp==null) return false;
+			LirNode newNode = node.makeCopy(env.lir);
+			newNode.setKid(1, exp);
+			insertTempNewNode(newNode, val, blk);
 		}
+		return true;
 	}
 	
 	public void insertNewTempPhi(int val, LirNode node, BasicBlk blk){
 		if(!existDomBlk(val,node.kid(1),blk)){
+			budget.copy();
 			LirNode newPhi = (newPhi(node,blk,tmpSymName)).makeCopy(env.lir);
 			newNodes.add(newPhi);
 			newPhi = newPhi.makeCopy(env.lir);
-			insertNodeToBlk.put(newPhi, blk);
+			inserted.put(newPhi, blk);
 			gvn.setValue(val, newPhi.kid(0), blk);
 		}
 	}
@@ -417,9 +503,9 @@ public class EQP implements LocalTransformer {
 			BasicBlk pred = (BasicBlk)p.elem();
 			BasicBlk domBlk = pred;
 			while(domBlk!=null){
-				if(!visited.containsKey(domBlk) || val!=blkVal[domBlk.id]) return false;
+				if(!visited.contains(domBlk.id) || val!=blkVal.get(domBlk.id)) return false;
 				if(gvn.containValue(val, domBlk) && dom.dominates(domBlk, blk)) break;
-				if(insertNodeToBlk.containsValue(domBlk))return false;
+				if(inserted.hasNode(domBlk))return false;
 				domBlk = dom.immDominator(domBlk);
 			}
 			if(domBlk==null) return false;
@@ -428,48 +514,27 @@ public class EQP implements LocalTransformer {
 	}
 	
 	public boolean checkResult(int val, BasicBlk blk){
-		if(result[blk.id]==null)return false;
-		HashSet list = result[blk.id];
-		return list.contains(val);
+		return result.contains(blk.id,val);
 	}
 	
 	public void recordResult(int val, BasicBlk blk){
-		if(result[blk.id]==null){
-			HashSet list = new HashSet();
-			result[blk.id] = list;
-		}
-		HashSet list = result[blk.id];
-		list.add(val);
+		result.add(blk.id,val);
 	}
 	
 	public boolean checkIsReal(int val, BasicBlk blk){
-		if(isReal[blk.id]==null)return false;
-		HashSet list = isReal[blk.id];
-		return list.contains(val);
+		return isReal.contains(blk.id,val);
 	}
 	
 	public void recordIsReal(int val, BasicBlk blk){
-		if(isReal[blk.id]==null){
-			HashSet list = new HashSet();
-			isReal[blk.id] = list;
-		}
-		HashSet list = isReal[blk.id];
-		list.add(val);
+		isReal.add(blk.id,val);
 	}
 	
 	public boolean checkIsSelf(int val, BasicBlk blk){
-		if(isSelf[blk.id]==null)return false;
-		HashSet list = isSelf[blk.id];
-		return list.contains(val);
+		return isSelf.contains(blk.id,val);
 	}
 	
 	public void recordIsSelf(int val, BasicBlk blk){
-		if(isSelf[blk.id]==null){
-			HashSet list = new HashSet();
-			isSelf[blk.id] = list;
-		}
-		HashSet list = isSelf[blk.id];
-		list.add(val);
+		isSelf.add(blk.id,val);
 	}
 	
 	public LirNode createNewVar(LirNode typeNode, String tmpSymName){
@@ -482,39 +547,47 @@ public class EQP implements LocalTransformer {
 		return util.makePhiInst(sym, blk);
 	}
 	
-	public boolean checkDSafe(int val, LirNode ve, LirNode expr, BasicBlk blk){
+	public boolean checkDSafe(int val, int vid, LirNode expr, BasicBlk blk){
 		if(gvn.containValue(val,blk)) return true;
-		boolean[] checkBlk = new boolean[idBound];
+		Scratch.Flags checkBlk = dSafeVisited;
+		checkBlk.clear();
 		for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
 			BasicBlk succ = (BasicBlk)p.elem();
-			if(checkBlk[succ.id]) continue;
-			LirNode newVExp = gvn.makeNewValueExp(ve,expr,succ);
-			int newVal = gvn.getValue(newVExp);
-			if(newVal==-1 || !checkDSafe(newVal,newVExp,expr,succ,checkBlk)) return false;
+			if(checkBlk.get(succ.id)) continue;
+			int newVid = gvn.translate(vid,expr,succ);
+			int newVal = gvn.getValueOfId(newVid);
+			if(newVal==-1 || !checkDSafe(newVal,newVid,expr,succ,checkBlk)) return false;
 		}
 		return true;
 	}
 	
-	public boolean checkDSafe(int val, LirNode ve, LirNode expr, BasicBlk blk, boolean[] checkBlk){
-		checkBlk[blk.id] = true;
+	public boolean checkDSafe(int val, int vid, LirNode expr, BasicBlk blk, Scratch.Flags checkBlk){
+		checkBlk.set(blk.id);
 		if(gvn.containValue(val,blk)) return true;
-		if(blk==f.flowGraph().exitBlk()) return false;
-		for(BiLink p=blk.succList().first();!p.atEnd();p=p.next()){
+		if(blk==f.flowGraph().exitBlk() || !budget.enter()) return false;
+		boolean safe = true;
+		for(BiLink p=blk.succList().first();!p.atEnd() && safe;p=p.next()){
 			BasicBlk succ = (BasicBlk)p.elem();
-			if(checkBlk[succ.id]) continue;
-			LirNode newVExp = gvn.makeNewValueExp(ve,expr,succ);
-			int newVal = gvn.getValue(newVExp);
-			if(newVal==-1 || !checkDSafe(newVal,newVExp,expr,succ,checkBlk)) return false;
+			if(checkBlk.get(succ.id)) continue;
+			int newVid = gvn.translate(vid,expr,succ);
+			int newVal = gvn.getValueOfId(newVid);
+			safe = newVal!=-1 && checkDSafe(newVal,newVid,expr,succ,checkBlk);
 		}
-		return true;
+		budget.leave();
+		return safe;
 	}
 	
-	boolean dependPhi(LirNode exp, BasicBlk blk){
+	/**
+	 * Return true if a variable of the block which the value expression
+	 * uses depends on a phi.
+	 **/
+	boolean dependPhi(int vid, LirNode exp, BasicBlk blk){
 		for(int i=0;i<exp.nKids();i++){
 			if(exp.kid(i).opCode==Op.REG){
-				if(dependPhiSet.contains(exp.kid(i))) return true;
+				LirNode var = gvn.variableOf(gvn.leafValue(gvn.kidId(vid,i)),blk,null);
+				if(dependPhiSet.contains(var)) return true;
 			}else if(exp.kid(i).nKids()>0){
-				if(dependPhi(exp.kid(i),blk)) return true;
+				if(dependPhi(gvn.kidId(vid,i),exp.kid(i),blk)) return true;
 			}
 		}
 		return false;
@@ -536,7 +609,7 @@ public class EQP implements LocalTransformer {
 				for(BiLink p=q;!p.atEnd();p=p.prev()){
 					LirNode node = (LirNode)p.elem();
 					if(node.opCode!=Op.SET && node.opCode!=Op.PHI)continue;
-					if(insertNodeToBlk.containsKey(node)){
+					if(inserted.contains(node)){
 						if(node.kid(1).nKids()==0) var = node.kid(1);
 						else var = node.kid(0);
 						break;
@@ -557,10 +630,10 @@ public class EQP implements LocalTransformer {
 		}
 		
 		while(domBlk!=null){
-			val = blkVal[domBlk.id];
+			val = blkVal.get(domBlk.id);
 			if(gvn.containValue(val,domBlk)) return gvn.getVariable(val,domBlk);
 			else if((blkToNewNode.containsKey(domBlk))) return ((LirNode)blkToNewNode.get(domBlk)).kid(0);
-			if(avail[domBlk.id]!=val) break;
+			if(avail.get(domBlk.id)!=val) break;
 			domBlk = dom.immDominator(domBlk);
 		}
 		return null;
@@ -581,7 +654,9 @@ public class EQP implements LocalTransformer {
 		else{
 			dst = predNode;
 		}
+		defUse.remove(p);
 		node.setKid(1, dst.makeCopy(env.lir));
+		defUse.add(blk,p);
 		
 		//
 		int newVal = gvn.getValue(predNode);
@@ -599,14 +674,18 @@ public class EQP implements LocalTransformer {
 	public boolean changeNameNewNodes(LirNode expr, BiLink q){
 		for(int i=0;i<newNodes.size();i++){
 			LirNode node = newNodes.get(i);
-			BasicBlk blk = insertNodeToBlk.get(node);
+			BasicBlk blk = inserted.blk(node);
 			if(node.opCode==Op.SET){
 				insertNewNode(node.makeCopy(env.lir),blk,blk.instrList().last());
 			}
 			else{
 				node = insertNewPhi(node,blk);
 				if(node==null)return false;
-				blk.instrList().first().addBefore(node.makeCopy(env.lir));
+				LirNode copy = node.makeCopy(env.lir);
+				BiLink link = blk.instrList().first().addBefore(copy);
+				inserted.put(copy, blk, link);
+				defUse.add(blk,link);
+				alias.recordInsertion(copy);
 			}
 			blkToNewNode.put(blk, node);
 		}
@@ -615,23 +694,25 @@ public class EQP implements LocalTransformer {
 	}
 	
 	public void insertNewNode(LirNode node, BasicBlk blk, BiLink p){
-		p.addBefore(node);
-		insertNodeToBlk.put(node, blk);
+		BiLink link = p.addBefore(node);
+		inserted.put(node, blk, link);
+		defUse.add(blk,link);
+		alias.recordInsertion(node);
 	}
 	
 	public LirNode insertNewPhi(LirNode phi, BasicBlk blk){
 		for(int j=1;j<phi.nKids();j++){
 			BasicBlk pred = (((LirLabelRef) phi.kid(j).kid(1)).label).basicBlk();
-			int predVal = blkVal[pred.id];
+			int predVal = blkVal.get(pred.id);
 			LirNode predVar = getVar(predVal,pred,null);
 			if(predVar==null){
-				insertNodeToBlk.put(phi, blk);
+				inserted.put(phi, blk);
 				return null;
 			}
 			phi.kid(j).setKid(0, predVar);
 		}
 		LirNode copy = phi.makeCopy(env.lir);
-		insertNodeToBlk.put(copy, blk);
+		inserted.put(copy, blk);
 		return copy;
 	}
 
@@ -643,7 +724,7 @@ public class EQP implements LocalTransformer {
 			for(int i=0;i<newNodes.size();i++){
 				LirNode node = newNodes.get(i);
 				if(newValNode.contains(node)) continue;
-				BasicBlk blk = insertNodeToBlk.get(node);
+				BasicBlk blk = inserted.blk(node);
 				int val = gvn.getValue(node.kid(0));
 				LirNode ve = gvn.makeVExp(node,blk);
 				int newVal = gvn.getValue(ve);
@@ -662,16 +743,15 @@ public class EQP implements LocalTransformer {
 	public void cancelInsertNode(){
 		for(int i=0;i<newNodes.size();i++){
 			LirNode node = newNodes.get(i);
-			if(!insertNodeToBlk.containsKey(node)) continue;
-			BasicBlk blk = insertNodeToBlk.get(node);
+			BasicBlk blk = inserted.blk(node);
+			if(blk==null) continue;
 			LirNode var = node.kid(0);
 			int val = gvn.getValue(var);
 			gvn.removeValue(val,node.kid(0),blk);
-			
-			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
-				LirNode n = (LirNode)p.elem();
-				if(n.opCode!=Op.PHI && n.opCode!=Op.SET) continue;
-				if(n.kid(0).equals(var))p.unlink();
+			BiLink link = inserted.link(node);
+			if(link!=null){
+				defUse.remove(link);
+				link.unlink();
 			}
 		}
 	}
@@ -0,0 +1,109 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * The nodes to be inserted by a question of EQP and their basic blocks.
+ * The nodes and the blocks are indexed both ways, so that whether a block
+ * has a node is answered in O(1), and the link of each node inserted into
+ * the LIR is recorded to unlink it directly when the insertion is cancelled.
+ **/
+final class InsertionIndex {
+	/** The basic block of each node **/
+	private HashMap nodeToBlk;
+	/** The link of each node which is inserted into the LIR **/
+	private HashMap nodeToLink;
+	/** The nodes of each basic block **/
+	private ArrayList[] blkToNodes;
+	/** The ids of the basic blocks which have nodes **/
+	private int[] used;
+	private int nUsed;
+
+	InsertionIndex(int idBound){
+		nodeToBlk = new HashMap();
+		nodeToLink = new HashMap();
+		blkToNodes = new ArrayList[idBound];
+		used = new int[idBound];
+	}
+
+
+	/**
+	 * Forget all the nodes. The cost is proportional to the number of the
+	 * basic blocks which have nodes.
+	 **/
+	void clear(){
+		for(int i=0;i<nUsed;i++) blkToNodes[used[i]] = null;
+		nUsed = 0;
+		nodeToBlk = new HashMap();
+		nodeToLink = new HashMap();
+	}
+
+
+	/**
+	 * Record the node to be inserted into the basic block.
+	 **/
+	void put(LirNode node, BasicBlk blk){
+		nodeToBlk.put(node, blk);
+		ArrayList nodes = blkToNodes[blk.id];
+		if(nodes==null){
+			nodes = new ArrayList();
+			blkToNodes[blk.id] = nodes;
+			used[nUsed++] = blk.id;
+		}
+		nodes.add(node);
+	}
+
+
+	/**
+	 * Record the node which is inserted into the basic block at the link.
+	 **/
+	void put(LirNode node, BasicBlk blk, BiLink link){
+		put(node,blk);
+		nodeToLink.put(node, link);
+	}
+
+
+	boolean contains(LirNode node){
+		return nodeToBlk.containsKey(node);
+	}
+
+
+	/**
+	 * Return the basic block of the node, or null.
+	 **/
+	BasicBlk blk(LirNode node){
+		return (BasicBlk)nodeToBlk.get(node);
+	}
+
+
+	/**
+	 * Return the link of the node in the LIR, or null if it is not inserted.
+	 **/
+	BiLink link(LirNode node){
+		return (BiLink)nodeToLink.get(node);
+	}
+
+
+	/**
+	 * Return true if the basic block has a node.
+	 **/
+	boolean hasNode(BasicBlk blk){
+		return blkToNodes[blk.id]!=null;
+	}
+
+
+	/**
+	 * Return the nodes of the basic block, or null.
+	 **/
+	ArrayList nodes(BasicBlk blk){
+		return blkToNodes[blk.id];
+	}
+}
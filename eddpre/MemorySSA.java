@@ -0,0 +1,345 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Stack;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.ana.DominanceFrontiers;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.lir.LirSymRef;
+import coins.backend.util.BiLink;
+
+/**
+ * Memory SSA form for EMemoryAliasAnalyze.<br>
+ * The memory is divided into partitions by the base of the addresses.
+ * Each STATIC or FRAME symbol which is the only symbol in an address is a
+ * partition, and all the other addresses (through registers or loaded
+ * pointers) are in the partition OTHER. A store to a symbol partition
+ * changes the partition and OTHER, and a store to OTHER or a CALL changes
+ * all the partitions. Each partition has its own memory phis, which are
+ * placed on the iterated dominance frontiers of the blocks changing it,
+ * and its own versions. The phis are kept in a side table and are not
+ * inserted into the LIR.
+ **/
+class MemorySSA {
+  /** The partition of the addresses whose base is not a single symbol **/
+  static final int OTHER=0;
+  /** The owner **/
+  private EMemoryAliasAnalyze owner;
+  private Function f;
+  /** The map from the base symbol to the partition **/
+  private HashMap partitions;
+  /** The number of the partitions **/
+  private int nParts;
+  /** The partitions changed in each basic block. Null if none. **/
+  private boolean[][] clobbered;
+  /** The basic blocks which have the memory phi of each partition **/
+  private boolean[][] phiAt;
+  /** The memory phis of each basic block **/
+  private ArrayList[] phis;
+  /** The current version of each partition **/
+  private long[] current;
+  /** The pairs of the partition and its previous version to be restored **/
+  private Stack undo;
+  /** The version of each partition at the entry of each basic block **/
+  private long[][] rankIn;
+  /** The version of each partition at the exit of each basic block **/
+  private long[][] rankOut;
+
+  /**
+   * A memory phi.
+   **/
+  static class MemPhi {
+    /** The partition **/
+    final int partition;
+    /** The version defined by the phi **/
+    final long version;
+    /** The versions at the exits of the predecessors in the order of predList **/
+    long[] args;
+
+    MemPhi(int partition,long version){
+      this.partition=partition;
+      this.version=version;
+    }
+
+    public String toString(){
+      StringBuffer s=new StringBuffer("(MEMPHI "+partition+" "+version);
+      for(int i=0;args!=null && i<args.length;i++) s.append(" "+args[i]);
+      return(s.append(")").toString());
+    }
+  }
+
+  /**
+   * Constructor. Make the partitions and place the memory phis.
+   * @param o The owner
+   * @param function The current function
+   * @param bottom The version at the entry of the function
+   **/
+  MemorySSA(EMemoryAliasAnalyze o,Function function,long bottom){
+    owner=o;
+    f=function;
+    int idBound=f.flowGraph().idBound();
+    partitions=new HashMap();
+    nParts=1;
+    clobbered=new boolean[idBound][];
+    phis=new ArrayList[idBound];
+    undo=new Stack();
+    rankIn=new long[idBound][];
+    rankOut=new long[idBound][];
+
+    for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+      BasicBlk blk=(BasicBlk)p.elem();
+      for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+        collectPartitions((LirNode)q.elem());
+      }
+    }
+    current=new long[nParts];
+    for(int i=0;i<nParts;i++) current[i]=bottom;
+
+    for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+      BasicBlk blk=(BasicBlk)p.elem();
+      for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+        LirNode node=(LirNode)q.elem();
+        if(node.opCode==Op.CALL) clobber(blk,-1);
+        else if(node.opCode==Op.SET && node.kid(0).opCode==Op.MEM)
+          clobber(blk,partition(node.kid(0)));
+      }
+    }
+    placePhis();
+  }
+
+  /**
+   * Number the base symbols of the MEM nodes in the expression.
+   **/
+  private void collectPartitions(LirNode exp){
+    if(exp.opCode==Op.MEM){
+      LirNode base=base(exp.kid(0));
+      if(base!=null && !partitions.containsKey(((LirSymRef)base).symbol))
+        partitions.put(((LirSymRef)base).symbol,new Integer(nParts++));
+    }
+    for(int i=0;i<exp.nKids();i++) collectPartitions(exp.kid(i));
+  }
+
+  /**
+   * Return the STATIC or FRAME node if it is the only symbol of the address
+   * and the address does not load a pointer from the memory, or null.
+   **/
+  private LirNode base(LirNode addr){
+    if(addr.opCode==Op.STATIC || addr.opCode==Op.FRAME) return(addr);
+    if(addr.opCode!=Op.ADD && addr.opCode!=Op.SUB) return(null);
+    LirNode base=null;
+    for(int i=0;i<addr.nKids();i++){
+      LirNode kid=addr.kid(i);
+      if(isIndex(kid)) continue;
+      LirNode b=base(kid);
+      if(b==null || base!=null) return(null);
+      base=b;
+    }
+    return(base);
+  }
+
+  /**
+   * Return true if the expression has neither symbols nor MEM nodes.
+   **/
+  private boolean isIndex(LirNode exp){
+    if(exp.opCode==Op.STATIC || exp.opCode==Op.FRAME || exp.opCode==Op.MEM) return(false);
+    for(int i=0;i<exp.nKids();i++){
+      if(!isIndex(exp.kid(i))) return(false);
+    }
+    return(true);
+  }
+
+  /**
+   * Return the partition of the MEM node.
+   **/
+  int partition(LirNode mem){
+    LirNode base=base(mem.kid(0));
+    if(base==null) return(OTHER);
+    Integer part=(Integer)partitions.get(((LirSymRef)base).symbol);
+    return((part==null) ? OTHER : part.intValue());
+  }
+
+  /**
+   * Return true if a store to the partition q changes the partition p.
+   * @param q The partition of the store, or -1 for a CALL
+   **/
+  private static boolean clobbers(int q,int p){
+    return(q<0 || q==OTHER || p==OTHER || q==p);
+  }
+
+  private void clobber(BasicBlk blk,int q){
+    if(clobbered[blk.id]==null) clobbered[blk.id]=new boolean[nParts];
+    for(int p=0;p<nParts;p++){
+      if(clobbers(q,p)) clobbered[blk.id][p]=true;
+    }
+  }
+
+  /**
+   * Place the memory phis of each partition on the iterated dominance
+   * frontiers of the basic blocks which change it.
+   **/
+  private void placePhis(){
+    final DominanceFrontiers df;
+    df=(DominanceFrontiers)f.require(DominanceFrontiers.analyzer);
+    phiAt=new boolean[nParts][clobbered.length];
+    for(BiLink q=f.flowGraph().basicBlkList.first();!q.atEnd();q=q.next()){
+      BasicBlk blk=(BasicBlk)q.elem();
+      if(clobbered[blk.id]==null) continue;
+      for(int p=0;p<nParts;p++){
+        if(!clobbered[blk.id][p]) continue;
+        final boolean[] mark=phiAt[p];
+        for(BiLink r=df.frontiers[blk.id].first();!r.atEnd();r=r.next()){
+          TreeWalker.walk(df.frontiers,(BasicBlk)r.elem(),new TreeWalker.PreOrder(){
+              public boolean enter(BasicBlk b){
+                if(mark[b.id]) return false;
+                mark[b.id]=true;
+                return true;
+              }
+            });
+        }
+      }
+    }
+  }
+
+  /**
+   * Return true if the basic block has a memory phi of any partition.
+   **/
+  boolean hasPhi(BasicBlk blk){
+    for(int p=0;p<nParts;p++){
+      if(phiAt[p][blk.id]) return(true);
+    }
+    return(false);
+  }
+
+  /**
+   * Start the basic block in the walk over the dominator tree.
+   * Define the versions of the memory phis of the block.
+   * @return The mark to be given to leave()
+   **/
+  int enter(BasicBlk blk){
+    int mark=undo.size();
+    for(int p=0;p<nParts;p++){
+      if(!phiAt[p][blk.id]) continue;
+      long v=owner.newNumber();
+      if(phis[blk.id]==null) phis[blk.id]=new ArrayList();
+      phis[blk.id].add(new MemPhi(p,v));
+      set(p,v);
+    }
+    rankIn[blk.id]=(long[])current.clone();
+    return(mark);
+  }
+
+  /**
+   * Record the versions at the exit of the basic block.
+   **/
+  void exit(BasicBlk blk){
+    rankOut[blk.id]=(long[])current.clone();
+  }
+
+  /**
+   * Restore the versions of the partitions as they were before enter().
+   **/
+  void leave(int mark){
+    while(undo.size()>mark){
+      long[] u=(long[])undo.pop();
+      current[(int)u[0]]=u[1];
+    }
+  }
+
+  private void set(int p,long v){
+    undo.push(new long[]{p,current[p]});
+    current[p]=v;
+  }
+
+  /**
+   * Define the version of the partitions changed by the store or the CALL.
+   * @param mem The MEM node stored to, or null for a CALL
+   * @param v The new version
+   **/
+  void define(LirNode mem,long v){
+    int q=(mem==null) ? -1 : partition(mem);
+    for(int p=0;p<nParts;p++){
+      if(clobbers(q,p)) set(p,v);
+    }
+  }
+
+  /**
+   * Return the current version of the MEM node.
+   **/
+  long version(LirNode mem){
+    return(current[partition(mem)]);
+  }
+
+  /**
+   * Fill the arguments of the memory phis after the walk.
+   **/
+  void finish(){
+    for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+      BasicBlk blk=(BasicBlk)p.elem();
+      if(phis[blk.id]==null) continue;
+      for(int i=0;i<phis[blk.id].size();i++){
+        MemPhi phi=(MemPhi)phis[blk.id].get(i);
+        phi.args=new long[blk.predList().length()];
+        int k=0;
+        for(BiLink q=blk.predList().first();!q.atEnd();q=q.next()){
+          BasicBlk pred=(BasicBlk)q.elem();
+          phi.args[k++]=(rankOut[pred.id]==null) ? 0 : rankOut[pred.id][phi.partition];
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the version of the partition of the MEM node at the entry of the block.
+   * If mem is null, the partition OTHER is used.
+   **/
+  long rankIn(BasicBlk blk,LirNode mem){
+    long[] r=rankIn[blk.id];
+    return((r==null) ? 0 : r[(mem==null) ? OTHER : partition(mem)]);
+  }
+
+  /**
+   * Return the version of the partition of the MEM node at the exit of the block.
+   * If mem is null, the partition OTHER is used.
+   **/
+  long rankOut(BasicBlk blk,LirNode mem){
+    long[] r=rankOut[blk.id];
+    return((r==null) ? 0 : r[(mem==null) ? OTHER : partition(mem)]);
+  }
+
+  /**
+   * Return true if the basic block has a store or a CALL which changes the
+   * partition of the MEM node.
+   **/
+  boolean clobbers(BasicBlk blk,LirNode mem){
+    return(clobbered[blk.id]!=null && clobbered[blk.id][partition(mem)]);
+  }
+
+  /**
+   * Return true if the store or the CALL may change the MEM node.
+   **/
+  boolean clobbers(LirNode def,LirNode mem){
+    if(def.opCode!=Op.SET) return(true);
+    return(clobbers(partition(def.kid(0)),partition(mem)));
+  }
+
+  /**
+   * Return the memory phis of the basic block, or null.
+   **/
+  ArrayList phis(BasicBlk blk){
+    return(phis[blk.id]);
+  }
+
+  /**
+   * Return the number of the partitions.
+   **/
+  int partitions(){
+    return(nParts);
+  }
+}
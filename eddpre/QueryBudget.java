@@ -0,0 +1,139 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+/**
+ * The budget of the question propagation of EQP.
+ * A question may visit a limited number of basic blocks, recurse to a
+ * limited depth and make a limited number of new nodes, and all the
+ * questions of a function may visit a limited number of basic blocks.
+ * When the budget is exhausted, the question is answered "not available"
+ * and its insertions are cancelled. The limits are given by the option
+ * ssa-eqp-budget=blocks,depth,nodes,function, where 0 or a missing
+ * number means the default.
+ **/
+final class QueryBudget {
+	public static final String OPT = "ssa-eqp-budget";
+	/** The default limits **/
+	private static final int BLOCKS = 10000;
+	private static final int DEPTH = 1000;
+	private static final int NODES = 1000;
+	private static final int FUNCTION = 1000000;
+	private int maxBlocks;
+	private int maxDepth;
+	private int maxNodes;
+	private long maxFunction;
+	/** The usage of the current question **/
+	private int blocks;
+	private int depth;
+	private int nodes;
+	/** The number of the blocks visited by all the questions of the function **/
+	private long total;
+	/** True if the current question exhausted the budget **/
+	private boolean exhausted;
+	/** The number of the questions which exhausted each limit **/
+	public int blocksExhausted;
+	public int depthExhausted;
+	public int nodesExhausted;
+	/** The number of the questions which are not asked because the function exhausted the budget **/
+	public int skipped;
+
+	QueryBudget(SsaEnvironment env){
+		maxBlocks = BLOCKS;
+		maxDepth = DEPTH;
+		maxNodes = NODES;
+		maxFunction = FUNCTION;
+		if(!env.opt.isSet(OPT) || env.opt.getArg(OPT)==null) return;
+		String[] args = env.opt.getArg(OPT).split(",");
+		maxBlocks = limit(args,0,BLOCKS);
+		maxDepth = limit(args,1,DEPTH);
+		maxNodes = limit(args,2,NODES);
+		maxFunction = limit(args,3,FUNCTION);
+	}
+
+
+	private static int limit(String[] args, int i, int initial){
+		if(i>=args.length) return initial;
+		try{
+			int n = Integer.parseInt(args[i].trim());
+			return (n>0) ? n : initial;
+		}catch(NumberFormatException e){
+			return initial;
+		}
+	}
+
+
+	/**
+	 * Start a question.
+	 * @return false if the function exhausted the budget and the question must not be asked
+	 **/
+	boolean begin(){
+		blocks = depth = nodes = 0;
+		exhausted = false;
+		if(total<maxFunction) return true;
+		skipped++;
+		return false;
+	}
+
+
+	/**
+	 * Finish the question.
+	 * @return false if the question exhausted the budget
+	 **/
+	boolean end(){
+		return !exhausted;
+	}
+
+
+	/**
+	 * Enter a basic block one level deeper.
+	 * @return false if the budget is exhausted. Then leave() must not be called.
+	 **/
+	boolean enter(){
+		if(exhausted) return false;
+		if(blocks>=maxBlocks) return exhaust(0);
+		if(depth>=maxDepth) return exhaust(1);
+		blocks++;
+		total++;
+		depth++;
+		return true;
+	}
+
+
+	void leave(){
+		depth--;
+	}
+
+
+	/**
+	 * Count a new node.
+	 **/
+	void copy(){
+		if(!exhausted && ++nodes>maxNodes) exhaust(2);
+	}
+
+
+	private boolean exhaust(int kind){
+		exhausted = true;
+		if(kind==0) blocksExhausted++;
+		else if(kind==1) depthExhausted++;
+		else nodesExhausted++;
+		return false;
+	}
+
+
+	/**
+	 * Return true if any question exhausted the budget.
+	 **/
+	boolean anyExhausted(){
+		return blocksExhausted+depthExhausted+nodesExhausted+skipped>0;
+	}
+
+
+	public String toString(){
+		return "blocks "+blocksExhausted+", depth "+depthExhausted+", nodes "+nodesExhausted
+			+", skipped "+skipped+" ("+total+" blocks visited)";
+	}
+}
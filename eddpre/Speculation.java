@@ -0,0 +1,129 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * The profile-guided speculation of EQP.
+ * When the insertions of a question are not down-safe, they are still made
+ * if the expression cannot fault and the execution count of the inserted
+ * expressions is less than the one of the eliminated expression, so that the
+ * expected number of the evaluations goes down. The speculative insertions
+ * of a function are limited to a percentage of its statements.
+ * The option is ssa-eqp-speculate=file[,growth], where file is a BlockProfile
+ * and growth is the percentage, 10 by default.
+ **/
+final class Speculation {
+	public static final String OPT = "ssa-eqp-speculate";
+	/** The default limit of the code growth in percent **/
+	private static final int GROWTH = 10;
+	private Function f;
+	/** The profile, or null if the speculation is disabled **/
+	private BlockProfile profile;
+	/** The number of the speculative insertions allowed in the function **/
+	private int maxNodes;
+	/** The number of the speculative insertions committed in the function **/
+	private int nodes;
+	/** The execution count of the expression of the current question **/
+	private long gain;
+	/** The execution count and the number of the speculative insertions of the current question **/
+	private long cost;
+	private int questionNodes;
+	/** The number of the questions which are answered by speculation **/
+	public int speculated;
+
+	Speculation(SsaEnvironment env, Function f){
+		this.f = f;
+		if(!env.opt.isSet(OPT) || env.opt.getArg(OPT)==null) return;
+		String[] args = env.opt.getArg(OPT).split(",");
+		BlockProfile bp = BlockProfile.load(env,args[0].trim());
+		if(bp==null || !bp.has(f)) return;
+		int growth = GROWTH;
+		if(args.length>1){
+			try{
+				growth = Math.max(0,Integer.parseInt(args[1].trim()));
+			}catch(NumberFormatException e){
+			}
+		}
+		int size = 0;
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next())
+			size += ((BasicBlk)p.elem()).instrList().length();
+		profile = bp;
+		maxNodes = (int)((long)size*growth/100);
+	}
+
+
+	boolean enabled(){
+		return profile!=null;
+	}
+
+
+	/**
+	 * Start a question on the expression in the basic block.
+	 **/
+	void begin(BasicBlk exprBlk){
+		cost = 0;
+		questionNodes = 0;
+		gain = enabled() ? profile.count(f,exprBlk) : 0;
+	}
+
+
+	/**
+	 * Return true if the expression may be inserted at the end of the
+	 * basic blocks blks although it is not down-safe.
+	 **/
+	boolean allow(LirNode expr, ArrayList blks){
+		if(!enabled() || !nonFaulting(expr)) return false;
+		if(nodes+questionNodes+blks.size()>maxNodes) return false;
+		long c = cost;
+		for(int i=0;i<blks.size();i++) c += profile.count(f,(BasicBlk)blks.get(i));
+		if(c>=gain) return false;
+		cost = c;
+		questionNodes += blks.size();
+		return true;
+	}
+
+
+	/**
+	 * Finish the question.
+	 * @param committed true if the insertions of the question are kept
+	 **/
+	void end(boolean committed){
+		if(!committed || questionNodes==0) return;
+		nodes += questionNodes;
+		speculated++;
+	}
+
+
+	/**
+	 * Return true if the evaluation of the expression never traps.
+	 **/
+	private static boolean nonFaulting(LirNode expr){
+		switch(expr.opCode){
+		case Op.MEM:
+		case Op.DIVS:
+		case Op.DIVU:
+		case Op.MODS:
+		case Op.MODU:
+		case Op.CALL:
+			return false;
+		}
+		for(int i=0;i<expr.nKids();i++){
+			if(!nonFaulting(expr.kid(i))) return false;
+		}
+		return true;
+	}
+
+
+	public String toString(){
+		return speculated+" questions, "+nodes+" of "+maxNodes+" nodes";
+	}
+}
@@ -0,0 +1,430 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * Exhaustive Partial Redundancy Elimination over bit-vectors.
+ * Every candidate expression of the function gets an index, and the
+ * equations of PRE are solved for all of them at once over packed
+ * long[] vectors per basic block.
+ **/
+class BitVectorPRE {
+	/** All the expressions are the target **/
+	public static final int ALL = 0;
+	/** Load expressions only are the target **/
+	public static final int LOAD = 1;
+	/** Expressions except load are the target **/
+	public static final int SCALAR = 2;
+	private SsaEnvironment env;
+	private Function f;
+	private PRE pre;
+	int idBound;
+	int nExp;
+	int words;
+	ArrayList exprs;
+	ArrayList exprVars;
+	HashMap expToIndex;
+	HashMap varToExps;
+	long[] memExps;
+	long[][] transp;
+	long[][] nIsSame;
+	long[][] xIsSame;
+	long[][] nDSafe;
+	long[][] xDSafe;
+	long[][] nUSafe;
+	long[][] xUSafe;
+	long[][] nEarliest;
+	long[][] xEarliest;
+	long[][] nDelayed;
+	long[][] xDelayed;
+	long[][] nLatest;
+	long[][] xLatest;
+	long[][] nIsolated;
+	long[][] xIsolated;
+	long[][] nInsert;
+	long[][] xInsert;
+	long[][] nReplace;
+	long[][] xReplace;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param env The environment of the SSA module
+	 * @param f The current function
+	 * @param pre The PRE object which is already initialized by init()
+	 **/
+	BitVectorPRE(SsaEnvironment env, Function f, PRE pre) {
+		this.env = env;
+		this.f = f;
+		this.pre = pre;
+		idBound = f.flowGraph().idBound();
+	}
+
+
+	/**
+	 * Do global code motion for all the target expressions at once.
+	 * @param kind ALL, LOAD or SCALAR
+	 **/
+	public void globalCodeMotion(int kind){
+		collectExpressions(kind);
+		if(nExp==0) return;
+		env.println("BitVectorPRE: "+nExp+" expressions in "+f.symbol.name, SsaEnvironment.AllThr);
+		compLocalProperty();
+		compDSafe();
+		compUSafe();
+		compEarliest();
+		compDelayed();
+		compLatest();
+		compIsolated();
+		compInsertReplace();
+		transform();
+	}
+
+
+	private boolean isTarget(LirNode node, int kind){
+		if(node.opCode!=Op.SET || node.kid(1).nKids()==0 || !pre.checkType(node)) return false;
+		if(kind==LOAD) return pre.isLoad(node);
+		if(kind==SCALAR) return !pre.isLoad(node);
+		return true;
+	}
+
+
+	/**
+	 * Assign an index to each target expression in the order that PRE visits them.
+	 **/
+	private void collectExpressions(int kind){
+		exprs = new ArrayList();
+		exprVars = new ArrayList();
+		expToIndex = new HashMap();
+		for(int i=1;i<pre.bVecInOrderOfRPost.length; i++) {
+			BasicBlk blk = pre.bVecInOrderOfRPost[i];
+			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
+				LirNode node = (LirNode)p.elem();
+				if(!isTarget(node,kind) || expToIndex.containsKey(node.kid(1)))continue;
+				LirNode copy = node.makeCopy(env.lir);
+				ArrayList vars = new ArrayList();
+				pre.collectVars(vars,copy.kid(1));
+				expToIndex.put(copy.kid(1), exprs.size());
+				exprs.add(copy);
+				exprVars.add(vars);
+			}
+		}
+		nExp = exprs.size();
+		words = (nExp+63)>>>6;
+		memExps = new long[words];
+		varToExps = new HashMap();
+		for(int i=0;i<nExp;i++){
+			LirNode expr = (LirNode)exprs.get(i);
+			if(expr.kid(1).opCode==Op.MEM) setBit(memExps,i);
+			ArrayList vars = (ArrayList)exprVars.get(i);
+			for(int j=0;j<vars.size();j++){
+				LirNode var = (LirNode)vars.get(j);
+				long[] exps = (long[])varToExps.get(var);
+				if(exps==null){
+					exps = new long[words];
+					varToExps.put(var, exps);
+				}
+				setBit(exps,i);
+			}
+		}
+	}
+
+
+	/**
+	 * Add the expressions which are killed by the node to the vector killed.
+	 * This is the same condition as PRE.isKill.
+	 **/
+	private void kills(LirNode node, long[] killed){
+		if(node.opCode==Op.CALL){
+			Arrays.fill(killed, -1L);
+			return;
+		}
+		if(node.nKids()==0) return;
+		if(node.kid(0).opCode==Op.MEM) or(killed,memExps);
+		long[] exps = (long[])varToExps.get(node.kid(0));
+		if(exps!=null) or(killed,exps);
+	}
+
+
+	private void compLocalProperty(){
+		transp = newVectors(false);
+		nIsSame = newVectors(false);
+		xIsSame = newVectors(false);
+		long[] killed = new long[words];
+		for(int i=1;i<pre.bVecInOrderOfRPost.length; i++) {
+			BasicBlk blk = pre.bVecInOrderOfRPost[i];
+			Arrays.fill(killed, 0L);
+			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
+				LirNode node = (LirNode)p.elem();
+				kills(node,killed);
+				int index = indexOf(node);
+				if(index!=-1 && !testBit(killed,index)) setBit(nIsSame[blk.id],index);
+			}
+			for(int w=0;w<words;w++) transp[blk.id][w] = ~killed[w];
+			Arrays.fill(killed, 0L);
+			for(BiLink p=blk.instrList().last();!p.atEnd();p=p.prev()){
+				LirNode node = (LirNode)p.elem();
+				kills(node,killed);
+				int index = indexOf(node);
+				if(index!=-1 && !testBit(killed,index)) setBit(xIsSame[blk.id],index);
+			}
+		}
+	}
+
+
+	private int indexOf(LirNode node){
+		if(node.opCode!=Op.SET) return -1;
+		Integer index = (Integer)expToIndex.get(node.kid(1));
+		return (index==null) ? -1 : index.intValue();
+	}
+
+
+	private void compDSafe(){
+		nDSafe = newVectors(true);
+		xDSafe = newVectors(true);
+		final long[] x = new long[words];
+		final long[] n = new long[words];
+		final BasicBlk exit = f.flowGraph().exitBlk();
+		pre.solver.solveBackward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
+				if(blk==exit) Arrays.fill(x, 0L);
+				else meetSucc(x,nDSafe,blk);
+				for(int w=0;w<words;w++){
+					x[w] |= xIsSame[blk.id][w];
+					n[w] = nIsSame[blk.id][w] | x[w] & transp[blk.id][w];
+				}
+				return update(nDSafe[blk.id],n) | update(xDSafe[blk.id],x);
+			}
+		});
+	}
+
+
+	private void compUSafe(){
+		nUSafe = newVectors(true);
+		xUSafe = newVectors(true);
+		final long[] x = new long[words];
+		final long[] n = new long[words];
+		final BasicBlk entry = f.flowGraph().entryBlk();
+		pre.solver.solveForward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
+				if(blk==entry) Arrays.fill(n, 0L);
+				else meetPred(n,xUSafe,blk);
+				for(int w=0;w<words;w++){
+					x[w] = xIsSame[blk.id][w] | n[w] & transp[blk.id][w];
+				}
+				return update(nUSafe[blk.id],n) | update(xUSafe[blk.id],x);
+			}
+		});
+	}
+
+
+	private void compEarliest(){
+		nEarliest = newVectors(true);
+		xEarliest = newVectors(true);
+		long[] any = new long[words];
+		BasicBlk entry = f.flowGraph().entryBlk();
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			Arrays.fill(any, 0L);
+			if(blk==entry){
+				Arrays.fill(any, -1L);
+			}else{
+				for(BiLink q=blk.predList().first();!q.atEnd();q=q.next()){
+					BasicBlk pred = (BasicBlk)q.elem();
+					for(int w=0;w<words;w++) any[w] |= ~(xUSafe[pred.id][w] | xDSafe[pred.id][w]);
+				}
+			}
+			for(int w=0;w<words;w++){
+				long n = (nUSafe[blk.id][w] | nDSafe[blk.id][w]) & any[w];
+				nEarliest[blk.id][w] = n;
+				xEarliest[blk.id][w] = xDSafe[blk.id][w] & (~transp[blk.id][w] | ~nDSafe[blk.id][w] & ~n);
+			}
+		}
+	}
+
+
+	private void compDelayed(){
+		nDelayed = newVectors(true);
+		xDelayed = newVectors(true);
+		final long[] x = new long[words];
+		final long[] n = new long[words];
+		final BasicBlk entry = f.flowGraph().entryBlk();
+		pre.solver.solveForward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
+				if(blk==entry){
+					Arrays.fill(n, 0L);
+				}else{
+					Arrays.fill(n, -1L);
+					for(BiLink q=blk.predList().first();!q.atEnd();q=q.next()){
+						BasicBlk pred = (BasicBlk)q.elem();
+						for(int w=0;w<words;w++) n[w] &= xDelayed[pred.id][w] & ~xIsSame[pred.id][w];
+					}
+				}
+				for(int w=0;w<words;w++){
+					n[w] |= nEarliest[blk.id][w];
+					x[w] = xEarliest[blk.id][w] | n[w] & ~nIsSame[blk.id][w];
+				}
+				return update(nDelayed[blk.id],n) | update(xDelayed[blk.id],x);
+			}
+		});
+	}
+
+
+	private void compLatest(){
+		nLatest = newVectors(false);
+		xLatest = newVectors(false);
+		long[] any = new long[words];
+		BasicBlk exit = f.flowGraph().exitBlk();
+		for(BiLink p=f.flowGraph().basicBlkList.last();!p.atEnd();p=p.prev()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			Arrays.fill(any, 0L);
+			if(blk!=exit){
+				for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+					BasicBlk succ = (BasicBlk)q.elem();
+					for(int w=0;w<words;w++) any[w] |= ~nDelayed[succ.id][w];
+				}
+			}
+			for(int w=0;w<words;w++){
+				xLatest[blk.id][w] = xDelayed[blk.id][w] & (xIsSame[blk.id][w] | any[w]);
+				nLatest[blk.id][w] = nDelayed[blk.id][w] & (~xDelayed[blk.id][w] | nIsSame[blk.id][w]);
+			}
+		}
+	}
+
+
+	private void compIsolated(){
+		nIsolated = newVectors(true);
+		xIsolated = newVectors(true);
+		final long[] x = new long[words];
+		final long[] n = new long[words];
+		final BasicBlk exit = f.flowGraph().exitBlk();
+		pre.solver.solveBackward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
+				Arrays.fill(x, -1L);
+				if(blk!=exit){
+					for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+						BasicBlk succ = (BasicBlk)q.elem();
+						for(int w=0;w<words;w++) x[w] &= ~nEarliest[succ.id][w] & ~nIsSame[succ.id][w] & nIsolated[succ.id][w];
+					}
+				}
+				for(int w=0;w<words;w++){
+					n[w] = ~transp[blk.id][w] | ~nIsSame[blk.id][w] & (xEarliest[blk.id][w] | x[w]);
+				}
+				return update(nIsolated[blk.id],n) | update(xIsolated[blk.id],x);
+			}
+		});
+	}
+
+
+	private void compInsertReplace(){
+		nInsert = newVectors(false);
+		xInsert = newVectors(false);
+		nReplace = newVectors(false);
+		xReplace = newVectors(false);
+		for(int i=1;i<pre.bVecInOrderOfRPost.length; i++) {
+			int id = pre.bVecInOrderOfRPost[i].id;
+			for(int w=0;w<words;w++){
+				nInsert[id][w] = nLatest[id][w] & ~nIsolated[id][w];
+				xInsert[id][w] = xLatest[id][w] & ~xIsolated[id][w];
+				nReplace[id][w] = nIsSame[id][w] & ~(nLatest[id][w] & nIsolated[id][w]);
+				xReplace[id][w] = xIsSame[id][w] & ~(xLatest[id][w] & xIsolated[id][w]);
+			}
+		}
+	}
+
+
+	/**
+	 * Insert and replace each expression using the solution of the bit-vectors.
+	 * The code transformation itself is the same as PRE.
+	 **/
+	private void transform(){
+		pre.nInsert = new boolean[idBound];
+		pre.xInsert = new boolean[idBound];
+		pre.nReplace = new boolean[idBound];
+		pre.xReplace = new boolean[idBound];
+		for(int i=0;i<nExp;i++){
+			boolean any = false;
+			for(int j=1;j<pre.bVecInOrderOfRPost.length; j++) {
+				int id = pre.bVecInOrderOfRPost[j].id;
+				pre.nInsert[id] = testBit(nInsert[id],i);
+				pre.xInsert[id] = testBit(xInsert[id],i);
+				pre.nReplace[id] = testBit(nReplace[id],i);
+				pre.xReplace[id] = testBit(xReplace[id],i);
+				any |= pre.nInsert[id] || pre.xInsert[id];
+			}
+			if(!any) continue;
+			LirNode expr = (LirNode)exprs.get(i);
+			ArrayList vars = (ArrayList)exprVars.get(i);
+			LirNode newNode = pre.insertNewNode(expr,vars);
+			if(newNode!=null) pre.replace(newNode);
+		}
+	}
+
+
+	private void meetSucc(long[] dst, long[][] v, BasicBlk blk){
+		Arrays.fill(dst, -1L);
+		for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+			BasicBlk succ = (BasicBlk)q.elem();
+			for(int w=0;w<words;w++) dst[w] &= v[succ.id][w];
+		}
+	}
+
+
+	private void meetPred(long[] dst, long[][] v, BasicBlk blk){
+		Arrays.fill(dst, -1L);
+		for(BiLink q=blk.predList().first();!q.atEnd();q=q.next()){
+			BasicBlk pred = (BasicBlk)q.elem();
+			for(int w=0;w<words;w++) dst[w] &= v[pred.id][w];
+		}
+	}
+
+
+	private long[][] newVectors(boolean init){
+		long[][] v = new long[idBound][words];
+		if(init){
+			for(int i=0;i<idBound;i++) Arrays.fill(v[i], -1L);
+		}
+		return v;
+	}
+
+
+	/**
+	 * Copy src to dst and return true if dst is changed.
+	 **/
+	private boolean update(long[] dst, long[] src){
+		boolean change = false;
+		for(int w=0;w<words;w++){
+			if(dst[w]!=src[w]){
+				dst[w] = src[w];
+				change = true;
+			}
+		}
+		return change;
+	}
+
+
+	private static void or(long[] dst, long[] src){
+		for(int w=0;w<dst.length;w++) dst[w] |= src[w];
+	}
+
+
+	private static void setBit(long[] v, int i){
+		v[i>>>6] |= 1L<<(i&63);
+	}
+
+
+	private static boolean testBit(long[] v, int i){
+		return (v[i>>>6] & (1L<<(i&63)))!=0;
+	}
+}
@@ -0,0 +1,132 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import coins.backend.Function;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.util.BiLink;
+
+/**
+ * Worklist solver of the data flow equations on basic blocks.
+ * Forward problems visit the blocks in reverse post-order and backward
+ * problems in post-order of the depth first spanning tree. After the first
+ * pass, only the blocks whose predecessors (forward) or successors
+ * (backward) changed are visited again.
+ **/
+class DataFlowSolver {
+	/**
+	 * The equation of a basic block.
+	 **/
+	interface Equation {
+		/**
+		 * Recompute the values of the basic block.
+		 * @param blk The current basic block
+		 * @return true if the values of the basic block changed
+		 **/
+		boolean transfer(BasicBlk blk);
+	}
+
+	/** The blocks in reverse post-order, followed by unreachable blocks **/
+	private BasicBlk[] order;
+	/** The position of each block in order **/
+	private int[] position;
+	/** Whether each position is on the worklist **/
+	private boolean[] onList;
+	/** The number of solved equations **/
+	public int problems;
+	/** The number of passes over the blocks **/
+	public int passes;
+	/** The maximum number of passes to solve one equation **/
+	public int maxPasses;
+	/** The number of visited blocks **/
+	public int visits;
+
+	/**
+	 * Constructor.
+	 * @param f The current function
+	 * @param bVecInOrderOfRPost The basic blocks in reverse post-order (DFST.blkVectorByRPost)
+	 **/
+	DataFlowSolver(Function f, BasicBlk[] bVecInOrderOfRPost) {
+		int idBound = f.flowGraph().idBound();
+		position = new int[idBound];
+		boolean[] seen = new boolean[idBound];
+		int n = 0;
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()) n++;
+		order = new BasicBlk[n];
+		n = 0;
+		for(int i=1;i<bVecInOrderOfRPost.length;i++){
+			BasicBlk blk = bVecInOrderOfRPost[i];
+			seen[blk.id] = true;
+			position[blk.id] = n;
+			order[n++] = blk;
+		}
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			if(seen[blk.id]) continue;
+			position[blk.id] = n;
+			order[n++] = blk;
+		}
+		onList = new boolean[n];
+	}
+
+
+	/**
+	 * Solve the forward equation.
+	 * @param eq The equation
+	 * @return The number of passes
+	 **/
+	public int solveForward(Equation eq){
+		return solve(eq,true);
+	}
+
+
+	/**
+	 * Solve the backward equation.
+	 * @param eq The equation
+	 * @return The number of passes
+	 **/
+	public int solveBackward(Equation eq){
+		return solve(eq,false);
+	}
+
+
+	private int solve(Equation eq, boolean forward){
+		int pending = order.length;
+		int pass = 0;
+		for(int i=0;i<order.length;i++) onList[i] = true;
+		while(pending>0){
+			pass++;
+			for(int k=0;k<order.length;k++){
+				int i = forward ? k : order.length-1-k;
+				if(!onList[i]) continue;
+				onList[i] = false;
+				pending--;
+				visits++;
+				BasicBlk blk = order[i];
+				if(!eq.transfer(blk)) continue;
+				BiLink first = forward ? blk.succList().first() : blk.predList().first();
+				for(BiLink p=first;!p.atEnd();p=p.next()){
+					int j = position[((BasicBlk)p.elem()).id];
+					if(onList[j]) continue;
+					onList[j] = true;
+					pending++;
+				}
+			}
+		}
+		problems++;
+		passes += pass;
+		if(pass>maxPasses) maxPasses = pass;
+		return pass;
+	}
+
+
+	/**
+	 * Return the statistics of this solver.
+	 **/
+	public String statistics(){
+		return "blocks="+order.length+" equations="+problems+" passes="+passes+
+			" maxPasses="+maxPasses+" visits="+visits;
+	}
+}
@@ -30,6 +30,7 @@ public class PRE implements LocalTransformer {
 	private Function f;
 	public BasicBlk[] bVecInOrderOfRPost;
 	private DFST dfst;
+	DataFlowSolver solver;
 	int idBound;
 	boolean[] transp;
 	boolean[] xTransp;
@@ -52,6 +53,8 @@ public class PRE implements LocalTransformer {
 	public boolean[] nReplace;
 	public boolean[] xReplace;
 	public static final String PRE = "_pre";
+	/** The option which selects to solve all the expressions at once over bit-vectors **/
+	public static final String BIT_VECTOR_OPT = "ssa-pre-bitvector";
 
 	/**
 	 * Constructor.
@@ -81,7 +84,10 @@ public class PRE implements LocalTransformer {
 	public boolean doIt(Function func, ImList args) {
 		f = func;
 		env.println("****************** doing exhaustive PRE to " + f.symbol.name, SsaEnvironment.MinThr);
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		invoke();
+		profile.end();
+		env.println("PRE data flow of " + f.symbol.name + ": " + solver.statistics(), SsaEnvironment.MsgThr);
 		f.flowGraph().touch();
 		return (true);
 	}
@@ -91,6 +97,7 @@ public class PRE implements LocalTransformer {
 		dfst = (DFST) f.require(DFST.analyzer);
 		idBound = f.flowGraph().idBound();
 		bVecInOrderOfRPost = dfst.blkVectorByRPost();
+		solver = new DataFlowSolver(f,bVecInOrderOfRPost);
 	}
 	
 	
@@ -134,6 +141,10 @@ public class PRE implements LocalTransformer {
 	
 	
 	private void globalCodeMotion(){
+		if(env.opt.isSet(BIT_VECTOR_OPT)){
+			new BitVectorPRE(env,f,this).globalCodeMotion(BitVectorPRE.ALL);
+			return;
+		}
 		ArrayList insertNode = new ArrayList();
 		for(int i=1;i<bVecInOrderOfRPost.length; i++) {
 			BasicBlk blk = bVecInOrderOfRPost[i];
@@ -211,11 +222,8 @@ public class PRE implements LocalTransformer {
 		xDSafe = new boolean[idBound];
 		Arrays.fill(nDSafe, true);
 		Arrays.fill(xDSafe, true);
-		boolean change = true;
-		while(change){
-			change = false;
-			for(BiLink p=f.flowGraph().basicBlkList.last();!p.atEnd();p=p.prev()){
-				BasicBlk blk = (BasicBlk)p.elem();
+		solver.solveBackward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
 				boolean x = false;
 				if(xIsSame[blk.id]) x = true;
 				else if(blk!=f.flowGraph().exitBlk()){
@@ -229,11 +237,12 @@ public class PRE implements LocalTransformer {
 					}
 				}
 				boolean n = nIsSame[blk.id] || x && transp[blk.id];
-				if(nDSafe[blk.id]!=n || xDSafe[blk.id]!=x) change = true;
+				boolean change = (nDSafe[blk.id]!=n || xDSafe[blk.id]!=x);
 				nDSafe[blk.id] = n;
 				xDSafe[blk.id] = x;
+				return change;
 			}
-		}
+		});
 	}
 	
 	
@@ -242,11 +251,8 @@ public class PRE implements LocalTransformer {
 		xUSafe = new boolean[idBound];
 		Arrays.fill(nUSafe, true);
 		Arrays.fill(xUSafe, true);
-		boolean change = true;
-		while(change){
-			change = false;
-			for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
-				BasicBlk blk = (BasicBlk)p.elem();
+		solver.solveForward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
 				boolean n = false;
 				if(blk!=f.flowGraph().entryBlk()){
 					n = true;
@@ -259,11 +265,12 @@ public class PRE implements LocalTransformer {
 					}
 				}
 				boolean x = xIsSame[blk.id] || n && transp[blk.id];
-				if(nUSafe[blk.id]!=n || xUSafe[blk.id]!=x) change = true;
+				boolean change = (nUSafe[blk.id]!=n || xUSafe[blk.id]!=x);
 				nUSafe[blk.id] = n;
 				xUSafe[blk.id] = x;
+				return change;
 			}
-		}
+		});
 	}
 	
 	
@@ -296,11 +303,8 @@ public class PRE implements LocalTransformer {
 		xDelayed = new boolean[idBound];
 		Arrays.fill(nDelayed, true);
 		Arrays.fill(xDelayed, true);
-		boolean change = true;
-		while(change){
-			change = false;
-			for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
-				BasicBlk blk = (BasicBlk)p.elem();
+		solver.solveForward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
 				boolean n = false;
 				if(nEarliest[blk.id]) n = true;
 				else if(blk!=f.flowGraph().entryBlk()){
@@ -314,11 +318,12 @@ public class PRE implements LocalTransformer {
 					}
 				}
 				boolean x = xEarliest[blk.id] || (n && !nIsSame[blk.id]);
-				if(nDelayed[blk.id]!=n || xDelayed[blk.id]!=x) change = true;
+				boolean change = (nDelayed[blk.id]!=n || xDelayed[blk.id]!=x);
 				nDelayed[blk.id] = n;
 				xDelayed[blk.id] = x;
+				return change;
 			}
-		}
+		});
 	}
 	
 	
@@ -351,11 +356,8 @@ public class PRE implements LocalTransformer {
 		xIsolated = new boolean[idBound];
 		Arrays.fill(nIsolated, true);
 		Arrays.fill(xIsolated, true);
-		boolean change = true;
-		while(change){
-			change = false;
-			for(BiLink p=f.flowGraph().basicBlkList.last();!p.atEnd();p=p.prev()){
-				BasicBlk blk = (BasicBlk)p.elem();
+		solver.solveBackward(new DataFlowSolver.Equation(){
+			public boolean transfer(BasicBlk blk){
 				boolean x = true;
 				if(blk!=f.flowGraph().exitBlk()){
 					for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
@@ -367,11 +369,12 @@ public class PRE implements LocalTransformer {
 					}
 				}
 				boolean n = !transp[blk.id] || !nIsSame[blk.id] && (xEarliest[blk.id] || x);
-				if(nIsolated[blk.id]!=n || xIsolated[blk.id]!=x) change = true;
+				boolean change = (nIsolated[blk.id]!=n || xIsolated[blk.id]!=x);
 				xIsolated[blk.id] = x;
 				nIsolated[blk.id] = n;
+				return change;
 			}
-		}
+		});
 	}
 	
 	
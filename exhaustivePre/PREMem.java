@@ -52,7 +52,10 @@ public class PREMem implements LocalTransformer {
 	public boolean doIt(Function func, ImList args) {
 		f = func;
 		env.println("****************** doing exhaustive PRE whose target is mem expression only to " + f.symbol.name, SsaEnvironment.MinThr);
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		invoke();
+		profile.end();
+		env.println("PRE data flow of " + f.symbol.name + ": " + pre.solver.statistics(), SsaEnvironment.MsgThr);
 		f.flowGraph().touch();
 		return (true);
 	}
@@ -80,6 +83,10 @@ public class PREMem implements LocalTransformer {
 	
 	
 	void globalCM(){
+		if(env.opt.isSet(PRE.BIT_VECTOR_OPT)){
+			new BitVectorPRE(env,f,pre).globalCodeMotion(BitVectorPRE.LOAD);
+			return;
+		}
 		for(int i=1;i<pre.bVecInOrderOfRPost.length; i++) {
 			ArrayList insertNode = new ArrayList();
 			BasicBlk blk = pre.bVecInOrderOfRPost[i];
@@ -0,0 +1,131 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+
+package coins.ssa;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import coins.backend.Function;
+import coins.backend.cfg.BasicBlk;
+
+/**
+ *
+ *  The execution counts of the basic blocks, which are read from a profile file.
+ *  Each line of the file is
+ *
+ *    function block count
+ *
+ *  where block is the id of the basic block, or
+ *
+ *    function edge k count
+ *
+ *  where k is a counter of EdgeCounter. The counts of the basic blocks of a
+ *  function which has only the counters are computed from them with the
+ *  spanning tree of EdgeCounter. Empty lines and the lines which
+ *  start with '#' are ignored. The ids are the ones of the flow graph at the
+ *  position of the pass in the pipeline where the profile was taken, so the
+ *  profile must be read at the same position with the same options.
+ *
+ */
+public class BlockProfile {
+	/** The profiles which are already read **/
+	private static HashMap files = new HashMap();
+	/** The counts of the basic blocks of each function **/
+	private HashMap functions;
+	/** The counters of EdgeCounter of each function **/
+	private HashMap edges;
+
+
+	private BlockProfile(){
+		functions = new HashMap();
+		edges = new HashMap();
+	}
+
+
+	/**
+	 * Return the profile in the file. The file is read only once.
+	 * @param env The environment of the SSA module
+	 * @param file The name of the profile file
+	 * @return The profile, or null if the file cannot be read
+	 **/
+	public static synchronized BlockProfile load(SsaEnvironment env, String file){
+		if(files.containsKey(file)) return (BlockProfile)files.get(file);
+		BlockProfile profile = new BlockProfile();
+		BufferedReader in = null;
+		try{
+			in = new BufferedReader(new FileReader(file));
+			int n = 0;
+			for(String line=in.readLine();line!=null;line=in.readLine()){
+				n++;
+				line = line.trim();
+				if(line.length()==0 || line.charAt(0)=='#') continue;
+				String[] words = line.split("\\s+");
+				try{
+					if(words.length==3)
+						add(profile.functions,words[0],Integer.parseInt(words[1]),Long.parseLong(words[2]));
+					else if(words.length==4 && words[1].equals("edge"))
+						add(profile.edges,words[0],Integer.parseInt(words[2]),Long.parseLong(words[3]));
+					else throw new NumberFormatException();
+				}catch(NumberFormatException e){
+					env.println("BlockProfile: "+file+":"+n+": bad line", SsaEnvironment.MsgThr);
+				}
+			}
+		}catch(IOException e){
+			System.err.println("BlockProfile: cannot read "+file+": "+e.getMessage());
+			profile = null;
+		}finally{
+			try{
+				if(in!=null) in.close();
+			}catch(IOException e){
+			}
+		}
+		files.put(file, profile);
+		return profile;
+	}
+
+
+	private static void add(HashMap functions, String function, int blk, long count){
+		if(blk<0 || count<0) throw new NumberFormatException();
+		long[] counts = (long[])functions.get(function);
+		if(counts==null || counts.length<=blk){
+			long[] table = new long[Math.max(blk+1,(counts==null) ? 16 : counts.length*2)];
+			Arrays.fill(table, -1L);
+			if(counts!=null) System.arraycopy(counts, 0, table, 0, counts.length);
+			counts = table;
+			functions.put(function, counts);
+		}
+		counts[blk] = (counts[blk]<0) ? count : counts[blk]+count;
+	}
+
+
+	/**
+	 * Return true if the profile has the counts of the function.
+	 **/
+	public boolean has(Function f){
+		return functions.containsKey(f.symbol.name) || edges.containsKey(f.symbol.name);
+	}
+
+
+	/**
+	 * Return the execution count of the basic block.
+	 * A block which is not in the profile of the function was not executed.
+	 * @return The count, or -1 if the profile does not have the function
+	 **/
+	public synchronized long count(Function f, BasicBlk blk){
+		long[] counts = (long[])functions.get(f.symbol.name);
+		if(counts==null && edges.containsKey(f.symbol.name)){
+			long[] counters = (long[])edges.remove(f.symbol.name);
+			for(int i=0;i<counters.length;i++) counters[i] = Math.max(0,counters[i]);
+			counts = new EdgeCounter.Edges(f).blockCounts(counters,f.flowGraph().idBound());
+			functions.put(f.symbol.name, counts);
+		}
+		if(counts==null) return -1;
+		if(blk.id>=counts.length || counts[blk.id]<0) return 0;
+		return counts[blk.id];
+	}
+}
@@ -0,0 +1,294 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+
+package coins.ssa;
+
+import java.io.StringReader;
+import coins.backend.Data;
+import coins.backend.Function;
+import coins.backend.LocalTransformer;
+import coins.backend.Op;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+import coins.backend.util.ImList;
+
+/**
+ *
+ *  Count the executions of the edges of the flow graph.
+ *  The edges of a spanning tree of the flow graph, with the virtual edge
+ *  from the exit to the entry, are not counted, because their counts follow
+ *  from the other edges by the conservation of the flow. Each of the other
+ *  edges gets a 64 bit counter which is incremented at the end of its source
+ *  or at the beginning of its target. The critical edges are put into the
+ *  tree first, and a function whose critical edge must be counted is not
+ *  instrumented.
+ *
+ *  The entry of the function calls the runtime
+ *
+ *    void coins_edge_profile(char *name, long long *counters, int n);
+ *
+ *  of edgeprofile.c, which registers the counters once and appends the lines
+ *
+ *    function edge k count
+ *
+ *  to the profile file at exit. BlockProfile reads the file and gets the
+ *  counts of the basic blocks back with the same spanning tree, so the
+ *  program must be compiled again with the same options up to this pass.
+ *  The functions which are active when exit() is called lose the flow of
+ *  their last edge.
+ *
+ */
+public class EdgeCounter implements LocalTransformer {
+	public boolean doIt(Data data, ImList args) {return true;}
+	public String name() {return "EdgeCounter";}
+	public String subject() {return "Count the executions of the edges.";}
+
+	public static final int THR = SsaEnvironment.OptThr;
+	/** The threshold of debug print **/
+	public static final int THR2 = SsaEnvironment.AllThr;
+	/** The runtime which registers the counters **/
+	public static final String RUNTIME = "coins_edge_profile";
+	private SsaEnvironment env;
+	private Function f;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param e The environment of the SSA module
+	 * @param tab The symbol tabel of the SSA module
+	 **/
+	public EdgeCounter(SsaEnvironment e, SsaSymTab tab) {
+		env = e;
+	}
+
+
+	/**
+	 * The edges of the flow graph and the spanning tree.
+	 * The edge 0 is the virtual edge from the exit to the entry.
+	 **/
+	static class Edges {
+		int n;
+		int[] from;
+		int[] to;
+		boolean[] isCritical;
+		/** True if the edge is in the spanning tree **/
+		boolean[] tree;
+		/** The counter of the edge, or -1 if it is in the tree **/
+		int[] counter;
+		int nCounters;
+		/** True if a critical edge needs a counter **/
+		boolean critical;
+
+		Edges(Function f){
+			int size = 1;
+			for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next())
+				size += ((BasicBlk)p.elem()).succList().length();
+			from = new int[size];
+			to = new int[size];
+			isCritical = new boolean[size];
+			add(f.flowGraph().exitBlk().id,f.flowGraph().entryBlk().id,true);
+			for(int pass=0;pass<2;pass++){
+				for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+					BasicBlk blk = (BasicBlk)p.elem();
+					for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+						BasicBlk succ = (BasicBlk)q.elem();
+						boolean c = isCritical(blk,succ);
+						if(c==(pass==0)) add(blk.id,succ.id,c);
+					}
+				}
+			}
+			int[] parent = new int[f.flowGraph().idBound()];
+			for(int i=0;i<parent.length;i++) parent[i] = i;
+			tree = new boolean[n];
+			counter = new int[n];
+			for(int i=0;i<n;i++){
+				int r1 = root(parent,from[i]);
+				int r2 = root(parent,to[i]);
+				tree[i] = r1!=r2;
+				if(tree[i]){
+					parent[r1] = r2;
+					counter[i] = -1;
+				}else{
+					counter[i] = nCounters++;
+					if(isCritical[i]) critical = true;
+				}
+			}
+		}
+
+
+		private void add(int src, int dst, boolean c){
+			from[n] = src;
+			to[n] = dst;
+			isCritical[n] = c;
+			n++;
+		}
+
+
+		private static int root(int[] parent, int x){
+			while(parent[x]!=x){
+				parent[x] = parent[parent[x]];
+				x = parent[x];
+			}
+			return x;
+		}
+
+
+		/**
+		 * Return the counts of the basic blocks from the counters.
+		 * @param counters The counts of the counted edges
+		 * @param idBound
+		 * @return The counts indexed by the id of the basic block
+		 **/
+		long[] blockCounts(long[] counters, int idBound){
+			long[] count = new long[n];
+			boolean[] known = new boolean[n];
+			// the number of the unknown edges and the known flow in minus out of each block.
+			int[] nUnknown = new int[idBound];
+			long[] balance = new long[idBound];
+			int[] start = new int[idBound+1];
+			for(int i=0;i<n;i++){
+				start[from[i]+1]++;
+				start[to[i]+1]++;
+			}
+			for(int b=0;b<idBound;b++) start[b+1] += start[b];
+			int[] incident = new int[2*n];
+			int[] fill = new int[idBound];
+			for(int i=0;i<n;i++){
+				incident[start[from[i]]+fill[from[i]]++] = i;
+				incident[start[to[i]]+fill[to[i]]++] = i;
+				if(tree[i]){
+					nUnknown[from[i]]++;
+					nUnknown[to[i]]++;
+					continue;
+				}
+				known[i] = true;
+				if(counter[i]<counters.length) count[i] = counters[counter[i]];
+				balance[to[i]] += count[i];
+				balance[from[i]] -= count[i];
+			}
+			// solve the tree edges from the leaves by the conservation of the flow.
+			int[] work = new int[idBound+n];
+			int nWork = 0;
+			for(int b=0;b<idBound;b++) if(nUnknown[b]==1) work[nWork++] = b;
+			while(nWork>0){
+				int b = work[--nWork];
+				if(nUnknown[b]!=1) continue;
+				int e = -1;
+				for(int k=start[b];k<start[b+1];k++) if(!known[incident[k]]) e = incident[k];
+				count[e] = Math.max(0,(to[e]==b) ? -balance[b] : balance[b]);
+				known[e] = true;
+				balance[to[e]] += count[e];
+				balance[from[e]] -= count[e];
+				nUnknown[from[e]]--;
+				nUnknown[to[e]]--;
+				int other = (to[e]==b) ? from[e] : to[e];
+				if(nUnknown[other]==1) work[nWork++] = other;
+			}
+			long[] blkCount = new long[idBound];
+			for(int i=0;i<n;i++) blkCount[to[i]] += count[i];
+			return blkCount;
+		}
+	}
+
+
+	private static boolean isCritical(BasicBlk src, BasicBlk dst){
+		return src.succList().length()>1 && dst.predList().length()>1;
+	}
+
+
+	private LirNode decode(String str){
+		LirNode node = null;
+		try {
+			ImList sexp = (ImList)ImList.readSexp(new StringReader(str));
+			node = env.lir.decodeLir(sexp, f, f.module);
+		} catch (Exception e) {
+			System.err.println("EdgeCounter: transformation error!");
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return node;
+	}
+
+
+	/**
+	 * Add the global symbol, and its data if dataStr is not null, to the module.
+	 **/
+	private void addData(String symStr, String dataStr){
+		try {
+			env.module.globalSymtab.addSymbol((ImList)ImList.readSexp(new StringReader(symStr)));
+			if(dataStr!=null)
+				env.module.elements.add(new Data(f.module, (ImList)ImList.readSexp(new StringReader(dataStr))));
+		} catch (Exception e) {
+			System.err.println("EdgeCounter: global variables error!");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+
+	private LirNode makeIncrement(String counters, int k){
+		String addr = "(ADD I32 (STATIC I32 \""+counters+"\") (INTCONST I32 "+(8*k)+"))";
+		return decode("(SET (MEM I64 "+addr+") (ADD I64 (MEM I64 "+addr+") (INTCONST I64 1)))");
+	}
+
+
+	/**
+	 * Insert the node on the edge from src to dst, which is not critical.
+	 **/
+	private void insertOnEdge(LirNode node, BasicBlk src, BasicBlk dst){
+		if(src.succList().length()==1){
+			BiLink last = src.instrList().last();
+			int op = ((LirNode)last.elem()).opCode;
+			if(op==Op.JUMP || op==Op.JUMPC || op==Op.JUMPN) last.addBefore(node);
+			else src.instrList().add(node);
+			return;
+		}
+		BiLink p = dst.instrList().first();
+		while(!p.atEnd() && ((LirNode)p.elem()).opCode==Op.PHI) p = p.next();
+		if(p.atEnd()) dst.instrList().add(node);
+		else p.addBefore(node);
+	}
+
+
+	public boolean doIt(Function function,ImList args) {
+		f = function;
+		Edges edges = new Edges(f);
+		if(edges.critical){
+			env.println("EdgeCounter: "+f.symbol.name+" is not instrumented because a critical edge must be counted", SsaEnvironment.MsgThr);
+			return true;
+		}
+		if(edges.nCounters==0) return true;
+
+		String counters = "_edgecount_"+f.symbol.name;
+		String name = "_edgename_"+f.symbol.name;
+		addData("(\""+counters+"\" STATIC A"+(64*(edges.nCounters+1))+" 8 \".data\" LDEF)",
+				"(DATA \""+counters+"\" (SPACE "+(8*(edges.nCounters+1))+"))");
+		StringBuffer chars = new StringBuffer();
+		for(int i=0;i<f.symbol.name.length();i++) chars.append(" "+(int)f.symbol.name.charAt(i));
+		addData("(\""+name+"\" STATIC A"+(8*(f.symbol.name.length()+1))+" 1 \".data\" LDEF)",
+				"(DATA \""+name+"\" (I8"+chars+" 0))");
+		if(env.module.globalSymtab.get(RUNTIME)==null)
+			addData("(\""+RUNTIME+"\" STATIC UNKNOWN 4 \".text\" XREF)",null);
+
+		BasicBlk[] blks = new BasicBlk[f.flowGraph().idBound()];
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			blks[blk.id] = blk;
+		}
+		for(int i=0;i<edges.n;i++){
+			if(edges.tree[i]) continue;
+			insertOnEdge(makeIncrement(counters,edges.counter[i]),blks[edges.from[i]],blks[edges.to[i]]);
+		}
+
+		LirNode call = decode("(CALL (STATIC I32 \""+RUNTIME+"\") ((STATIC I32 \""+name+"\") (STATIC I32 \""+counters+"\") (INTCONST I32 "+edges.nCounters+")) ())");
+		f.flowGraph().entryBlk().instrList().first().addAfter(call);
+		env.println("EdgeCounter: "+edges.nCounters+" of "+(edges.n-1)+" edges of "+f.symbol.name+" are counted", THR);
+
+		f.flowGraph().touch();
+		return true;
+	}
+}
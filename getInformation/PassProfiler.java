@@ -0,0 +1,191 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+
+package coins.ssa;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import coins.backend.Data;
+import coins.backend.Function;
+import coins.backend.LocalTransformer;
+import coins.backend.util.ImList;
+
+/**
+ *
+ *  Measure the cost of the passes per function.
+ *  If the option ssa-pass-profile=file is set, the wall time, the CPU time
+ *  and the allocated bytes of each pass on each function are appended to the
+ *  file. The CPU time and the allocated bytes are the ones of the current
+ *  thread, so that the passes running on the other threads are not counted,
+ *  and the cost of a pass includes the passes which it runs inside.
+ *  If the option ssa-pass-profile-retained is set too, the heap is collected
+ *  before and after the pass, and the larger of the two used sizes is
+ *  recorded as an approximation of the peak retained size. It is the size
+ *  of the whole heap, so it is meaningful only when one function is
+ *  compiled at a time. Otherwise it is -1.
+ *  The file is CSV, or JSON lines if its name ends with ".json".
+ *  A pass is measured either by wrapping it with this class, or by the hook
+ *  begin() ... Record.end() in its doIt.
+ *
+ */
+public class PassProfiler implements LocalTransformer {
+	public boolean doIt(Data data, ImList args) {return pass.doIt(data,args);}
+	public String name() {return pass.name();}
+	public String subject() {return pass.subject();}
+
+	/** The option which enables the profile and names the output file **/
+	public static final String OPT = "ssa-pass-profile";
+	/** The output file when the option has no file name **/
+	public static final String DEFAULT_FILE = "pass-profile.csv";
+	/** The option which records the retained heap size, which forces collections **/
+	public static final String RETAINED_OPT = "ssa-pass-profile-retained";
+	private static final String HEADER = "function,pass,wall_ns,cpu_ns,alloc_bytes,retained_bytes";
+	private SsaEnvironment env;
+	private LocalTransformer pass;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param e The environment of the SSA module
+	 * @param p The measured pass
+	 **/
+	public PassProfiler(SsaEnvironment e, LocalTransformer p) {
+		env = e;
+		pass = p;
+	}
+
+
+	public boolean doIt(Function func, ImList args) {
+		Record r = begin(env,func,pass.name());
+		boolean result = pass.doIt(func,args);
+		r.end();
+		return result;
+	}
+
+
+	/**
+	 * Start measuring the pass on the function.
+	 * @param env The environment of the SSA module
+	 * @param f The current function
+	 * @param pass The name of the pass
+	 * @return The record, which does nothing if the profile is not enabled
+	 **/
+	public static Record begin(SsaEnvironment env, Function f, String pass){
+		if(!env.opt.isSet(OPT)) return new Record(null,null,null);
+		String file = env.opt.getArg(OPT);
+		if(file==null || file.length()==0) file = DEFAULT_FILE;
+		return new Record(env,f.symbol.name,pass).start(file,env.opt.isSet(RETAINED_OPT));
+	}
+
+
+	/**
+	 * The cost of a pass on a function.
+	 **/
+	public static class Record {
+		private SsaEnvironment env;
+		private String function;
+		private String pass;
+		private String file;
+		private long wall;
+		private long cpu;
+		private long alloc;
+		/** The used heap after a collection, or -1 if it is not measured **/
+		private long retained;
+
+		private Record(SsaEnvironment e, String function, String pass){
+			this.env = e;
+			this.function = function;
+			this.pass = pass;
+		}
+
+
+		private Record start(String file, boolean measureRetained){
+			this.file = file;
+			retained = measureRetained ? retainedBytes() : -1;
+			alloc = allocatedBytes();
+			cpu = cpuTime();
+			wall = System.nanoTime();
+			return this;
+		}
+
+
+		/**
+		 * Finish measuring and append the record to the output file.
+		 **/
+		public void end(){
+			if(env==null) return;
+			wall = System.nanoTime()-wall;
+			cpu = cpuTime()-cpu;
+			alloc = allocatedBytes()-alloc;
+			if(retained>=0) retained = Math.max(retained,retainedBytes());
+			env.println("profile "+pass+" of "+function+": wall "+wall+"ns, cpu "+cpu+"ns, alloc "+alloc+"B, retained "+retained+"B", SsaEnvironment.MsgThr);
+			write(file,format());
+		}
+
+
+		private String format(){
+			if(file.endsWith(".json")){
+				return "{\"function\":\""+escape(function)+"\",\"pass\":\""+escape(pass)+"\",\"wall_ns\":"+wall
+				+",\"cpu_ns\":"+cpu+",\"alloc_bytes\":"+alloc+",\"retained_bytes\":"+retained+"}";
+			}
+			return function+","+pass+","+wall+","+cpu+","+alloc+","+retained;
+		}
+	}
+
+
+	/**
+	 * Return the CPU time of the current thread, or -1 if it is not supported.
+	 **/
+	private static long cpuTime(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!bean.isCurrentThreadCpuTimeSupported()) return -1;
+		return bean.getCurrentThreadCpuTime();
+	}
+
+
+	/**
+	 * Return the bytes allocated by the current thread, or -1 if it is not supported.
+	 **/
+	private static long allocatedBytes(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+
+	/**
+	 * Return the used size of the heap after a collection.
+	 **/
+	private static long retainedBytes(){
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+
+	private static String escape(String s){
+		return s.replace("\\","\\\\").replace("\"","\\\"");
+	}
+
+
+	private static synchronized void write(String file, String line){
+		PrintWriter out = null;
+		try{
+			File f = new File(file);
+			boolean header = (!f.exists() || f.length()==0) && !file.endsWith(".json");
+			out = new PrintWriter(new FileWriter(f,true));
+			if(header) out.println(HEADER);
+			out.println(line);
+		}catch(IOException e){
+			System.err.println("PassProfiler: cannot write "+file+": "+e.getMessage());
+		}finally{
+			if(out!=null) out.close();
+		}
+	}
+}
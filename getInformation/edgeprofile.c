@@ -0,0 +1,70 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+
+/*
+ *  The runtime of EdgeCounter.
+ *  Link this file with the program instrumented by EdgeCounter. At exit, the
+ *  counters of the executed functions are appended to the file named by the
+ *  environment variable COINS_EDGE_PROFILE, or edge-profile.txt, as the lines
+ *
+ *    function edge k count
+ *
+ *  which BlockProfile reads.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+
+struct counters {
+  char *name;
+  long long *counters;
+  int n;
+  struct counters *next;
+};
+
+static struct counters *functions;
+
+static void write_profile(void)
+{
+  const char *file = getenv("COINS_EDGE_PROFILE");
+  FILE *out;
+  struct counters *p;
+  int k;
+
+  if (file == NULL || *file == '\0')
+    file = "edge-profile.txt";
+  out = fopen(file, "a");
+  if (out == NULL) {
+    perror(file);
+    return;
+  }
+  for (p = functions; p != NULL; p = p->next)
+    for (k = 0; k < p->n; k++)
+      fprintf(out, "%s edge %d %lld\n", p->name, k, p->counters[k]);
+  fclose(out);
+}
+
+/*
+ *  Called at the entry of an instrumented function. The counters have n+1
+ *  elements, and the last one tells that they are registered.
+ */
+void coins_edge_profile(char *name, long long *counters, int n)
+{
+  struct counters *p;
+
+  if (counters[n] != 0)
+    return;
+  counters[n] = 1;
+  p = (struct counters *)malloc(sizeof(struct counters));
+  if (p == NULL)
+    return;
+  if (functions == NULL)
+    atexit(write_profile);
+  p->name = name;
+  p->counters = counters;
+  p->n = n;
+  p->next = functions;
+  functions = p;
+}
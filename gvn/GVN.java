@@ -4,6 +4,8 @@
 --------------------------------------------------------------------- */
 package coins.ssa;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Stack;
@@ -31,6 +33,8 @@ public class GVN implements LocalTransformer {
 	public static final int THR = SsaEnvironment.OptThr;
 	/** The threshold of debug print **/
 	public static final int THR2 = SsaEnvironment.AllThr;
+	/** The option which selects the SCC-based optimistic numbering **/
+	public static final String SCC_OPT = "ssa-gvn-scc";
 	private SsaEnvironment env;
 	private Function f;
 	
@@ -56,13 +60,18 @@ public class GVN implements LocalTransformer {
 	private int value;
 	private HashMap samePhiMap;
 	private Stack worklist;
-	private HashMap dependListMap;
+	/** The order in which the variables depending on the loop phis are found **/
+	private HashMap dependOrder;
+	/** The def-use chains of the function, which the dependents of the loop phis are found in **/
+	DefUse defUse;
 	private HashMap dependMap;
-	private HashMap valueTable;
-	private HashMap constValTable;
-	private HashMap blkVariableMap;
-	private HashMap reachValueMap;
+	ValueExpTable valueTable;
+	private LirNode[] constValTable;
+	private IntMap[] blkVariableMap;
+	private SparseBitSet[] reachValueMap;
 	private BasicBlk[] bVecInOrderOfRPost;
+	/** True if the variables are numbered by SCCValueNumbering before numbering the blocks **/
+	private boolean sccMode;
 	
 	/**
 	 * Do Global Value Numbering.
@@ -72,15 +81,17 @@ public class GVN implements LocalTransformer {
 	 **/
 	public boolean doIt(Function func, ImList args) {
 		f = func;
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
 		gvn(1);
 		alias.annul();
+		profile.end();
 		f.flowGraph().touch();
 		return (true);
 	}
 	
 	public boolean checkReachability(int val, BasicBlk blk){
-		HashSet reachValue = (HashSet)reachValueMap.get(blk);
-		return reachValue.contains(val);
+		SparseBitSet reachValue = reachValueMap[blk.id];
+		return (reachValue!=null && reachValue.contains(val));
 	}
 	
 	/**
@@ -90,22 +101,38 @@ public class GVN implements LocalTransformer {
 	 *                                          3 --> none of expressions which are eliminated.
 	 */
 	public void gvn(int elmode){
+		gvn(elmode,null,null);
+	}
+	
+	/**
+	 * Do global value numbering with the memory alias analysis which is already made on the function.
+	 * @param shared The memory alias analysis, or null to make a new one
+	 * @param index The def-use chains of the function, or null to make new ones
+	 */
+	void gvn(int elmode, EMemoryAliasAnalyze shared, DefUse index){
 		dom = (Dominators) f.require(Dominators.analyzer);
 		dfst = (DFST) f.require(DFST.analyzer);
 		idBound = f.flowGraph().idBound();
 		value = 0;
-		constValTable = new HashMap();
-		valueTable = new HashMap();
-		blkVariableMap = new HashMap();
+		constValTable = new LirNode[64];
+		valueTable = new ValueExpTable();
+		blkVariableMap = new IntMap[idBound];
 		samePhiMap = new HashMap();
-		dependListMap = new HashMap();
+		dependOrder = new HashMap();
+		defUse = (index!=null) ? index : new DefUse(env,f);
 		dependMap = new HashMap();
-		reachValueMap = new HashMap();
+		reachValueMap = new SparseBitSet[idBound];
 		bVecInOrderOfRPost = dfst.blkVectorByRPost();
-		alias=new EMemoryAliasAnalyze(env,f);
+		alias = (shared!=null) ? shared : new EMemoryAliasAnalyze(env,f);
+		sccMode = env.opt.isSet(SCC_OPT);
+		if(sccMode){
+			SCCValueNumbering scc = new SCCValueNumbering(this,bVecInOrderOfRPost);
+			scc.number();
+			env.println("GVN SCC of "+f.symbol.name+": components "+scc.sccs+", loops "+scc.loops+", iterations "+scc.iterations,SsaEnvironment.MsgThr);
+		}
 		for(int i=1;i<bVecInOrderOfRPost.length; i++) {
 			BasicBlk blk = bVecInOrderOfRPost[i];
-			if(checkPhiArg(blk)){
+			if(!sccMode && checkPhiArg(blk)){
 				traverseDomTree(blk,true,elmode);
 				checkPhiVal(blk);
 			}
@@ -114,11 +141,12 @@ public class GVN implements LocalTransformer {
 	}
 	
 	private void recordReachValue(BasicBlk blk){
-		recordReachableValues(blk);
-		for(BiLink p=dom.kids[blk.id].first();!p.atEnd();p=p.next()){
-			BasicBlk kid = (BasicBlk)p.elem();
-			recordReachValue(kid);
-		}
+		TreeWalker.walk(dom.kids,blk,new TreeWalker.PreOrder(){
+			public boolean enter(BasicBlk b){
+				recordReachableValues(b);
+				return true;
+			}
+		});
 	}
 	
 	public int getMaximumValue(){
@@ -139,25 +167,35 @@ public class GVN implements LocalTransformer {
 	 * @param exp
 	 * @return
 	 */
-	private int newValue(LirNode exp, BasicBlk blk){
+	int newValue(LirNode exp, BasicBlk blk){
 		value++;
 		setValueRecordBlkVal(value,exp,blk);
 		return value;
 	}
 	
+	/**
+	 * Generate a new value number to the variable which is defined by a call or a prologue.
+	 * On the SCC mode, the value number given by SCCValueNumbering is used.
+	 */
+	private int presetValue(LirNode var, BasicBlk blk){
+		int val = sccMode ? getValue(var) : -1;
+		if(val==-1) return newValue(var,blk);
+		setValueRecordBlkVal(val,var,blk);
+		return val;
+	}
+	
 	/**
 	 * Do setValue and set value number val to hash-map variables which records value numbers in basic block blk and
-	 * hash-set reachValue which records reachable value numbers from the start point of this function to this basic block.
+	 * the set reachValue which records reachable value numbers from the start point of this function to this basic block.
 	 * @param val
 	 * @param exp
 	 * @param blk
 	 */
 	private void setValueRecordBlkVal(int val, LirNode exp, BasicBlk blk){
 		setValue(val,exp);
-		HashMap variables = getBlkVariableMap(blk);
-		if(variables.containsKey(val)) variables.remove(val);
+		IntMap variables = getBlkVariableMap(blk);
 		variables.put(val, exp);
-		HashSet reachValue = getReachValueMap(blk);
+		SparseBitSet reachValue = getReachValueMap(blk);
 		reachValue.add(val);
 	}
 	
@@ -166,10 +204,24 @@ public class GVN implements LocalTransformer {
 	 * @param val
 	 * @param exp
 	 */
-	private void setValue(int val, LirNode exp){
-		if(valueTable.containsKey(exp))valueTable.remove(exp);
-		valueTable.put(exp, val);
-		if(exp.nKids()==0 && exp.opCode!=Op.REG)constValTable.put(val, exp);
+	void setValue(int val, LirNode exp){
+		valueTable.setValue(valueTable.intern(exp,true), val);
+		if(exp.nKids()==0 && exp.opCode!=Op.REG)setConstValue(val, exp);
+	}
+	
+	private void setConstValue(int val, LirNode exp){
+		if(val<0)return;
+		if(val>=constValTable.length){
+			LirNode[] table = new LirNode[Math.max(constValTable.length*2,val+1)];
+			System.arraycopy(constValTable, 0, table, 0, constValTable.length);
+			constValTable = table;
+		}
+		constValTable[val] = exp;
+	}
+	
+	private LirNode getConstValue(int val){
+		if(val<0 || val>=constValTable.length)return null;
+		return constValTable[val];
 	}
 	
 	public void setValue(int val, LirNode lhs, LirNode rhs, BasicBlk blk){
@@ -216,8 +268,7 @@ public class GVN implements LocalTransformer {
 	 */
 	public int getValue(LirNode ve){
 		if(ve.opCode==Op.PHI && sameArgVal(ve))return lirIntNodeToInteger(ve.kid(1));
-		if(!valueTable.containsKey(ve)) return -1;
-		return (Integer)valueTable.get(ve);
+		return valueTable.value(valueTable.intern(ve,false));
 	}
 	
 	/**
@@ -235,11 +286,11 @@ public class GVN implements LocalTransformer {
 	}
 	
 	private void removeValue(LirNode exp){
-		valueTable.remove(exp);
+		valueTable.remove(valueTable.intern(exp,false));
 	}
 	
 	public void removeValueFromBlkMap(LirNode exp, int val, BasicBlk blk){
-		HashMap variables = getBlkVariableMap(blk);
+		IntMap variables = getBlkVariableMap(blk);
 		LirNode var = (LirNode)variables.get(val);
 		if(exp.equals(var)){
 			variables.remove(val);
@@ -256,8 +307,8 @@ public class GVN implements LocalTransformer {
 			}else if(expr.kid(i).opCode==Op.REG){
 				int opVal = lirIntNodeToInteger(exp.kid(i));
 				LirNode newReg = null;
-				if(constValTable.containsKey(opVal)){
-					newReg = (LirNode)constValTable.get(opVal);
+				if(getConstValue(opVal)!=null){
+					newReg = getConstValue(opVal);
 				}else{
 					newReg = getReachVar(opVal,blk,q);
 				}
@@ -329,6 +380,201 @@ public class GVN implements LocalTransformer {
 		return newVE;
 	}
 	
+	/**
+	 * Return the id of the value expression in the value table.
+	 * The following methods work on the ids instead of the value expressions,
+	 * so that the question propagation of EQP makes no LirNode until an
+	 * insertion is committed.
+	 * @param ve
+	 * @return
+	 */
+	public int valueExpId(LirNode ve){
+		return valueTable.intern(ve,true);
+	}
+	
+	public int getValueOfId(int id){
+		return valueTable.value(id);
+	}
+	
+	public void setValueOfId(int val, int id){
+		valueTable.setValue(id,val);
+	}
+	
+	/**
+	 * Return the value number of the value leaf, or -1.
+	 * @param id
+	 * @return
+	 */
+	public int leafValue(int id){
+		return valueTable.leafValue(id);
+	}
+	
+	public int kidId(int id, int i){
+		return valueTable.kid(id,i);
+	}
+	
+	public int replaceKid(int id, int i, int k){
+		return valueTable.replaceKid(id,i,k);
+	}
+	
+	/**
+	 * Return the id of the value leaf of the leaf node, as makeVExp does.
+	 * @param leaf
+	 * @param blk
+	 * @return
+	 */
+	public int leafValueId(LirNode leaf, BasicBlk blk){
+		int val = getValue(leaf);
+		if(val==-1)val = newValue(leaf,blk);
+		return valueTable.valueLeaf(val,true);
+	}
+	
+	/**
+	 * The same as makeNewValueExp(ve,expr,blk,pred) on the id of ve.
+	 * @param id
+	 * @param expr
+	 * @param blk
+	 * @param pred
+	 * @return
+	 */
+	public int translate(int id, LirNode expr, BasicBlk blk, BasicBlk pred){
+		int base = valueTable.mark();
+		boolean change = false;
+		for(int i=0;i<expr.nKids();i++){
+			int kid = valueTable.kid(id,i);
+			int newKid = kid;
+			if(expr.kid(i).opCode==Op.REG){
+				int veVal = valueTable.leafValue(kid);
+				boolean found = false;
+				for(BiLink p=blk.instrList().first();!p.atEnd() && !found;p=p.next()){
+					LirNode node = (LirNode)p.elem();
+					if(node.opCode!=Op.PHI)break;
+					if(veVal!=getValue(node.kid(0)))continue;
+					for(int j=1;j<node.nKids();j++){
+						if(pred==(((LirLabelRef) node.kid(j).kid(1)).label).basicBlk()){
+							int argVal = getValue(node.kid(j).kid(0));
+							if(argVal==-1 && (node.kid(j).kid(0).nKids()==0 && node.kid(j).kid(0).opCode!=Op.REG)){
+								argVal = newValue();
+								setValue(argVal,node.kid(j).kid(0),pred);
+							}
+							newKid = valueTable.valueLeaf(argVal,true);
+							found = true;
+							break;
+						}
+					}
+				}
+			}else if(expr.kid(i).nKids()>0){
+				newKid = translate(kid,expr.kid(i),blk,pred);
+			}
+			change |= (newKid!=kid);
+			valueTable.push(newKid);
+		}
+		if(!change){
+			valueTable.release(base);
+			return id;
+		}
+		return valueTable.find(valueTable.op(id),valueTable.type(id),base,true);
+	}
+	
+	/**
+	 * The same as makeNewValueExp(ve,expr,succ) on the id of ve.
+	 * @param id
+	 * @param expr
+	 * @param succ
+	 * @return
+	 */
+	public int translate(int id, LirNode expr, BasicBlk succ){
+		int base = valueTable.mark();
+		boolean change = false;
+		for(int i=0;i<expr.nKids();i++){
+			int kid = valueTable.kid(id,i);
+			int newKid = kid;
+			if(expr.kid(i).opCode==Op.REG){
+				int veVal = valueTable.leafValue(kid);
+				boolean found = false;
+				for(BiLink p=succ.instrList().first();!p.atEnd() && !found;p=p.next()){
+					LirNode node = (LirNode)p.elem();
+					if(node.opCode!=Op.PHI)break;
+					for(int j=1;j<node.nKids();j++){
+						if(veVal==getValue(node.kid(j).kid(0))){
+							newKid = valueTable.valueLeaf(getValue(node.kid(0)),true);
+							found = true;
+							break;
+						}
+					}
+				}
+			}else if(expr.kid(i).nKids()>0){
+				newKid = translate(kid,expr.kid(i),succ);
+			}
+			change |= (newKid!=kid);
+			valueTable.push(newKid);
+		}
+		if(!change){
+			valueTable.release(base);
+			return id;
+		}
+		return valueTable.find(valueTable.op(id),valueTable.type(id),base,true);
+	}
+	
+	/**
+	 * Return the variable or the constant which has the value number at the point q of the block,
+	 * or null, as valueNumberToVariable uses.
+	 * @param val
+	 * @param blk
+	 * @param q
+	 * @return
+	 */
+	public LirNode variableOf(int val, BasicBlk blk, BiLink q){
+		LirNode c = getConstValue(val);
+		return (c!=null) ? c : getReachVar(val,blk,q);
+	}
+	
+	/**
+	 * Return true if valueNumberToVariable would succeed on the id of the value expression.
+	 * @param id
+	 * @param expr
+	 * @param blk
+	 * @return
+	 */
+	public boolean hasVariables(int id, LirNode expr, BasicBlk blk){
+		for(int i=0;i<expr.nKids();i++){
+			if(expr.kid(i).nKids()>0){
+				if(!hasVariables(valueTable.kid(id,i),expr.kid(i),blk))return false;
+			}else if(expr.kid(i).opCode==Op.REG){
+				if(variableOf(valueTable.leafValue(valueTable.kid(id,i)),blk,null)==null)return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The same as valueNumberToVariable on the id of the value expression.
+	 * @param id
+	 * @param expr
+	 * @param blk
+	 * @param q
+	 * @return
+	 */
+	public LirNode materialize(int id, LirNode expr, BasicBlk blk, BiLink q){
+		LirNode exp = expr.makeCopy(env.lir);
+		for(int i=0;i<exp.nKids();i++){
+			if(expr.kid(i).nKids()>0){
+				LirNode sub = materialize(valueTable.kid(id,i),expr.kid(i),blk,q);
+				if(sub==null)return null;
+				exp.setKid(i, sub);
+			}else if(expr.kid(i).opCode==Op.REG){
+				LirNode newReg = variableOf(valueTable.leafValue(valueTable.kid(id,i)),blk,q);
+				if(newReg==null)return null;
+				exp.setKid(i, newReg.makeCopy(env.lir));
+			}else if(expr.opCode==Op.MEM && i==1){
+				// the index of the memory is the one of the value expression.
+				LirNode index = getConstValue(valueTable.leafValue(valueTable.kid(id,i)));
+				if(index!=null) exp.setKid(i, index.makeCopy(env.lir));
+			}
+		}
+		return exp;
+	}
+	
 	/**
 	 * Return true if there is the value number of the argument arg in this basic block blk.
 	 * @param val
@@ -336,7 +582,7 @@ public class GVN implements LocalTransformer {
 	 * @return
 	 */
 	public boolean containValue(int val, BasicBlk blk){
-		HashMap blkValueMap = getBlkVariableMap(blk);
+		IntMap blkValueMap = getBlkVariableMap(blk);
 		return (blkValueMap.containsKey(val));
 	}
 	
@@ -347,48 +593,46 @@ public class GVN implements LocalTransformer {
 	 * @return
 	 */
 	public LirNode getVariable(int val, BasicBlk blk){
-		HashMap variables = getBlkVariableMap(blk);
-		if(!variables.containsKey(val))return null;
-		return (LirNode)variables.get(val);
+		return (LirNode)getBlkVariableMap(blk).get(val);
 	}
 	
-	public void updateBlkVariableMap(BasicBlk blk, HashMap valMap){
-		blkVariableMap.remove(blk);
-		blkVariableMap.put(blk, valMap);
+	public void updateBlkVariableMap(BasicBlk blk, IntMap valMap){
+		blkVariableMap[blk.id] = valMap;
 	}
 	
 	public boolean reachValue(int val, BasicBlk blk){
-		HashSet rv = getReachValueMap(blk);
+		SparseBitSet rv = getReachValueMap(blk);
 		return rv.contains(val);
 	}
 	
 	private void recordReachableValues(BasicBlk blk){
-		HashSet reachValue = getReachValueMap(blk);
+		SparseBitSet reachValue = getReachValueMap(blk);
 		for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
 			BasicBlk pred = (BasicBlk)p.elem();
-			HashSet predReachValueMap = getReachValueMap(pred);
-			reachValue.addAll(predReachValueMap);
+			reachValue.addAll(reachValueMap[pred.id]);
 		}
-		reachValueMap.put(blk, reachValue);
 	}
 	
 	private void deleteReachableValues(BasicBlk blk){
-		reachValueMap.remove(blk);
+		reachValueMap[blk.id] = null;
 	}
 	
-	public void updateReachableValues(BasicBlk blk, HashSet valMap){
-		HashSet reachValue = getReachValueMap(blk);
+	public void updateReachableValues(BasicBlk blk, SparseBitSet valMap){
+		SparseBitSet reachValue = getReachValueMap(blk);
 		reachValue.addAll(valMap);
 		for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
 			BasicBlk pred = (BasicBlk)p.elem();
-			HashSet predReachValueMap = getReachValueMap(pred);
-			reachValue.addAll(predReachValueMap);
+			reachValue.addAll(reachValueMap[pred.id]);
 		}
 	}
 	
 	public int determineValue(LirNode node, BasicBlk blk){
+		if(node.opCode!=Op.CALL){
+			int val = lookupValue(node,blk);
+			if(val!=-1)return val;
+		}
 		LirNode ve = makeVExp(node,blk);
-		if(ve==null)return newValue(node.kid(2).kid(0),blk);
+		if(ve==null)return presetValue(node.kid(2).kid(0),blk);
 		int val = getValue(ve);
 		if(val==-1) val = newValue(ve,blk);
 		return val;
@@ -435,6 +679,60 @@ public class GVN implements LocalTransformer {
 		return valExp;
 	}
 	
+	/**
+	 * Return the value number of the value expression which makeVExp would make from the node,
+	 * without making it. If the value expression or some of its operands have no value number
+	 * yet, this method returns -1 and the caller falls back to makeVExp.
+	 * @param node PHI or SET node
+	 * @param blk
+	 * @return
+	 */
+	private int lookupValue(LirNode node, BasicBlk blk){
+		if(node.opCode==Op.PHI){
+			int base = valueTable.mark();
+			valueTable.push(valueTable.valueLeaf(blk.id,false));
+			boolean same = true;
+			int first = -1;
+			for(int i=1;i<node.nKids();i++){
+				int val = getValue(node.kid(i).kid(0));
+				if(val==-1 && node.kid(i).kid(0).opCode!=Op.REG){
+					valueTable.release(base);
+					return -1;
+				}
+				if(i==1) first = val;
+				else if(val!=first) same = false;
+				valueTable.push(valueTable.valueLeaf(val,false));
+			}
+			if(same && first!=-1){
+				valueTable.release(base);
+				return first;
+			}
+			return valueTable.value(valueTable.find(node.opCode,node.type,base,false));
+		}
+		if(node.opCode!=Op.SET)return -1;
+		if(node.kid(1).nKids()==0)return getValue(node.kid(1));
+		return valueTable.value(lookupVExp(node.kid(1)));
+	}
+	
+	private int lookupVExp(LirNode exp){
+		int base = valueTable.mark();
+		for(int i=0;i<exp.nKids();i++){
+			int id;
+			if(exp.kid(i).nKids()>0){
+				id = lookupVExp(exp.kid(i));
+			}else{
+				int val = getValue(exp.kid(i));
+				id = (val==-1) ? -1 : valueTable.valueLeaf(val,false);
+			}
+			if(id==-1){
+				valueTable.release(base);
+				return -1;
+			}
+			valueTable.push(id);
+		}
+		return valueTable.find(exp.opCode,exp.type,base,false);
+	}
+	
 	public LirNode getReachVar(int val, BasicBlk blk, BiLink q){
 		LirNode lv = getLocalVar(val,blk,q);
 		if(lv!=null)return lv;
@@ -500,7 +798,7 @@ public class GVN implements LocalTransformer {
 			LirNode node = (LirNode)p.elem();
 			if(node.opCode!=Op.PHI)break;
 			for(int i=1;i<node.nKids();i++){
-				if(node.kid(i).kid(0).opCode==Op.REG && !valueTable.containsKey(node.kid(i).kid(0))){
+				if(node.kid(i).kid(0).opCode==Op.REG && !valueTable.contains(valueTable.intern(node.kid(i).kid(0),false))){
 					BasicBlk pred = (((LirLabelRef) node.kid(i).kid(1)).label).basicBlk();
 					if(dom.dominates(blk, pred))ans = true;
 					else return false;
@@ -510,28 +808,71 @@ public class GVN implements LocalTransformer {
 		return ans;
 	}
 	
+	/**
+	 * Number the dominator subtree of the block. For each kid whose phi has
+	 * an argument not numbered yet, the subtree of the kid is numbered
+	 * optimistically and the phi is checked before the subtree is numbered
+	 * again. The walk keeps its frames on an explicit stack.
+	 **/
 	void traverseDomTree(BasicBlk blk, boolean optimistic, int elmode){
+		Stack frames = new Stack();
 		numbering(blk,true,elmode);
-		for(BiLink p=dom.kids[blk.id].first();!p.atEnd();p=p.next()){
-			BasicBlk kid = (BasicBlk)p.elem();
-			if(checkPhiArg(kid)){
-				traverseDomTree(kid,true,elmode);
-				checkPhiVal(kid);
+		frames.push(new DomFrame(optimistic,dom.kids[blk.id].first()));
+		while(!frames.empty()){
+			DomFrame frame = (DomFrame)frames.peek();
+			if(frame.state==DomFrame.NEXT && frame.p.atEnd()){
+				frames.pop();
+				continue;
 			}
-			traverseDomTree(kid,optimistic,elmode);
+			BasicBlk kid = (BasicBlk)frame.p.elem();
+			boolean kidOptimistic;
+			if(frame.state==DomFrame.NEXT && checkPhiArg(kid)){
+				frame.state = DomFrame.PHI;
+				kidOptimistic = true;
+			}else if(frame.state!=DomFrame.KID){
+				if(frame.state==DomFrame.PHI) checkPhiVal(kid);
+				frame.state = DomFrame.KID;
+				kidOptimistic = frame.optimistic;
+			}else{
+				frame.p = frame.p.next();
+				frame.state = DomFrame.NEXT;
+				continue;
+			}
+			numbering(kid,true,elmode);
+			frames.push(new DomFrame(kidOptimistic,dom.kids[kid.id].first()));
+		}
+	}
+	
+	/**
+	 * A frame of traverseDomTree.
+	 **/
+	private static class DomFrame {
+		/** The kid is not walked yet **/
+		static final int NEXT = 0;
+		/** The kid is walked optimistically and its phi must be checked **/
+		static final int PHI = 1;
+		/** The kid is walked **/
+		static final int KID = 2;
+		boolean optimistic;
+		/** The current kid **/
+		BiLink p;
+		int state;
+		
+		DomFrame(boolean optimistic, BiLink p){
+			this.optimistic = optimistic;
+			this.p = p;
 		}
 	}
 	
 	private void numbering(BasicBlk blk, boolean optimistic, int elmode){
 		deleteReachableValues(blk);
-		HashMap localMap = new HashMap();
+		IntMap localMap = new IntMap();
 		for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
 			LirNode node = (LirNode)p.elem();
 			if(node.opCode==Op.PROLOGUE){
 				for(int i=0;i<node.nKids();i++){
 					if(node.kid(i).opCode==Op.REG){
-						int val = newValue();
-						setValueRecordBlkVal(val,node.kid(i),blk);
+						presetValue(node.kid(i),blk);
 					}
 				}
 			}
@@ -541,7 +882,7 @@ public class GVN implements LocalTransformer {
 				int val = determineValue(node,blk);
 				setValueRecordBlkVal(val,node.kid(0),blk);
 				if(optimistic){
-					HashMap variables = getBlkVariableMap(blk);
+					IntMap variables = getBlkVariableMap(blk);
 					if(variables.containsKey(val)){
 						LirNode var = (LirNode)variables.get(val);
 						if(samePhiMap.containsKey(var)) var = (LirNode)samePhiMap.get(var);
@@ -560,7 +901,9 @@ public class GVN implements LocalTransformer {
 							if(localMap.containsKey(val)){
 								LirNode pred = (LirNode)localMap.get(val);
 								if(elmode==1 || elmode==2 && node.kid(1).opCode!=Op.MEM){
+									defUse.remove(p);
 									node.setKid(1, pred);
+									defUse.add(blk,p);
 								}
 							}
 							localMap.put(val,node.kid(0));
@@ -579,15 +922,11 @@ public class GVN implements LocalTransformer {
 		recordReachableValues(blk);
 	}
 	
-	private HashSet getReachValueMap(BasicBlk blk){
-		HashSet reachValue;
-		if(reachValueMap.containsKey(blk)){
-			reachValue = (HashSet)reachValueMap.get(blk);
-		}else{
-			reachValue = new HashSet();
-			reachValueMap.put(blk, reachValue);
+	private SparseBitSet getReachValueMap(BasicBlk blk){
+		if(reachValueMap[blk.id]==null){
+			reachValueMap[blk.id] = new SparseBitSet();
 		}
-		return reachValue;
+		return reachValueMap[blk.id];
 	}
 	
 	private boolean sameArgVal(LirNode ve){
@@ -598,12 +937,11 @@ public class GVN implements LocalTransformer {
 		return true;
 	}
 	
-	private HashMap getBlkVariableMap(BasicBlk blk){
-		if(!blkVariableMap.containsKey(blk)){
-			HashMap bvm = new HashMap();
-			blkVariableMap.put(blk, bvm);
+	private IntMap getBlkVariableMap(BasicBlk blk){
+		if(blkVariableMap[blk.id]==null){
+			blkVariableMap[blk.id] = new IntMap();
 		}
-		return (HashMap)blkVariableMap.get(blk);
+		return blkVariableMap[blk.id];
 	}
 	
 	private void checkPhiVal(BasicBlk blk){
@@ -636,14 +974,13 @@ public class GVN implements LocalTransformer {
 		worklist.push(var);
 		while(!worklist.empty()){
 			LirNode diffVar = (LirNode)worklist.pop();
-			ArrayList list = getDependListMap(diffVar);
+			ArrayList list = dependents(diffVar);
 			for(int i=0;i<list.size();i++){
-				ArrayList diff = (ArrayList)list.get(i);
-				LirNode dNode = (LirNode)diff.get(0);
-				BasicBlk dBlk = (BasicBlk)diff.get(1);
+				DefUse.Use diff = (DefUse.Use)list.get(i);
+				LirNode dNode = diff.node();
 				LirNode dvar = dNode.kid(0);
-				int newVal = determineValue(dNode,dBlk);
-				setValueRecordBlkVal(newVal,dvar,dBlk);
+				int newVal = determineValue(dNode,diff.blk);
+				setValueRecordBlkVal(newVal,dvar,diff.blk);
 				if(!checkAssum(newVal,dvar) && !worklist.contains(dvar)){
 					worklist.push(dvar);
 				}
@@ -651,11 +988,40 @@ public class GVN implements LocalTransformer {
 		}
 	}
 	
+	/**
+	 * Return the statements which depend on the loop phi, found through the
+	 * def-use chains, in the order in which they were numbered.
+	 **/
+	private ArrayList dependents(LirNode phiVar){
+		ArrayList list = new ArrayList();
+		HashSet found = new HashSet();
+		Stack vars = new Stack();
+		vars.push(phiVar);
+		while(!vars.empty()){
+			ArrayList uses = defUse.uses((LirNode)vars.pop());
+			for(int i=0;i<uses.size();i++){
+				DefUse.Use use = (DefUse.Use)uses.get(i);
+				LirNode node = use.node();
+				if(node.opCode!=Op.PHI && node.opCode!=Op.SET || !dependOrder.containsKey(node.kid(0))) continue;
+				if(!found.add(use.link)) continue;
+				list.add(use);
+				if(node.kid(0).opCode==Op.REG) vars.push(node.kid(0));
+			}
+		}
+		Collections.sort(list, new Comparator(){
+			public int compare(Object a, Object b){
+				int x = ((Integer)dependOrder.get(((DefUse.Use)a).node().kid(0))).intValue();
+				int y = ((Integer)dependOrder.get(((DefUse.Use)b).node().kid(0))).intValue();
+				return (x<y) ? -1 : (x==y) ? 0 : 1;
+			}
+		});
+		return list;
+	}
+	
 	private void checkDependPhi(LirNode node, BasicBlk blk){
 		if(node.opCode==Op.PHI){
 			for(int i=1;i<node.nKids();i++){
 				if(checkDepend(node.kid(i).kid(0))){
-					addDependList(node.kid(i).kid(0),node,blk);
 					addDependMap(node.kid(0), node.kid(i).kid(0));
 				}
 			}
@@ -663,13 +1029,11 @@ public class GVN implements LocalTransformer {
 		else if(node.opCode==Op.SET){
 			if(node.kid(1).nKids()==0){
 				if(checkDepend(node.kid(1))){
-					addDependList(node.kid(1),node,blk);
 					addDependMap(node.kid(0), node.kid(1));
 				}
 			}else{
 				for(int i=0;i<node.kid(1).nKids();i++){
 					if(checkDepend(node.kid(1).kid(i))){
-						addDependList(node.kid(1).kid(i),node,blk);
 						addDependMap(node.kid(0), node.kid(1).kid(i));
 					}
 				}
@@ -682,32 +1046,13 @@ public class GVN implements LocalTransformer {
 		if(samePhiMap.containsKey(var)) temp = var;
 		else temp = (LirNode)dependMap.get(var);
 		dependMap.put(lhs, temp);
+		if(!dependOrder.containsKey(lhs)) dependOrder.put(lhs, new Integer(dependOrder.size()));
 	}
 	
 	private boolean checkDepend(LirNode var){
 		return (samePhiMap.containsKey(var) || dependMap.containsKey(var));
 	}
 	
-	private void addDependList(LirNode var, LirNode node, BasicBlk blk){
-		LirNode phiVar;
-		if(samePhiMap.containsKey(var)) phiVar = var;
-		else phiVar = (LirNode)dependMap.get(var);
-		ArrayList list = getDependListMap(phiVar);
-		ArrayList subList = new ArrayList();
-		subList.add(node);
-		subList.add(blk);
-		list.add(subList);
-	}
-	
-	private ArrayList getDependListMap(LirNode var){
-		if(!dependListMap.containsKey(var)){
-			ArrayList list = new ArrayList();
-			dependListMap.put(var, list);
-			return list;
-		}
-		return (ArrayList)dependListMap.get(var);
-	}
-	
 	public void printCFG(){
 		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
 			BasicBlk blk = (BasicBlk)p.elem();
@@ -745,22 +1090,22 @@ public class GVN implements LocalTransformer {
 	}
 	
 	public void printValueNumber(LirNode var){
-		if(!valueTable.containsKey(var)) System.out.println("there is no value number of "+var);
-		else System.out.println(var+":"+valueTable.get(var));
+		int id = valueTable.intern(var,false);
+		if(!valueTable.contains(id)) System.out.println("there is no value number of "+var);
+		else System.out.println(var+":"+valueTable.value(id));
 	}
 	
 	public void printReachValue(BasicBlk blk){
 		System.out.println("");
 		System.out.println("blk:"+blk.label());
-		HashSet reachValue = (HashSet)reachValueMap.get(blk);
-		System.out.println(reachValue);
+		System.out.println(reachValueMap[blk.id]);
 		System.out.println("");
 	}
 	
 	public void printVarBlk(BasicBlk blk){
 		System.out.println("");
 		System.out.println("blk:"+blk.label());
-		HashMap variables = getBlkVariableMap(blk);
+		IntMap variables = getBlkVariableMap(blk);
 		System.out.println(variables);
 		System.out.println("");
 	}
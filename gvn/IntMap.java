@@ -0,0 +1,112 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+/**
+ * Map from int to object, used for the variables of each value number
+ * in each basic block in GVN.
+ * The keys and the values are held in open addressing arrays with linear
+ * probing, so the keys are not boxed. A null value is not held.
+ **/
+class IntMap {
+	private int[] keys;
+	private Object[] vals;
+	/** The number of entries **/
+	private int size;
+
+	IntMap(){
+		keys = new int[8];
+		vals = new Object[8];
+	}
+
+
+	/**
+	 * Return the value of the key, or null.
+	 **/
+	Object get(int key){
+		int i = find(key);
+		return (i<0) ? null : vals[i];
+	}
+
+
+	boolean containsKey(int key){
+		return find(key)>=0;
+	}
+
+
+	/**
+	 * Set the value of the key. A null value removes the key.
+	 **/
+	void put(int key, Object val){
+		if(val==null){
+			remove(key);
+			return;
+		}
+		if(2*(size+1)>keys.length) grow();
+		int mask = keys.length-1;
+		int i = hash(key)&mask;
+		while(vals[i]!=null && keys[i]!=key) i = (i+1)&mask;
+		if(vals[i]==null) size++;
+		keys[i] = key;
+		vals[i] = val;
+	}
+
+
+	void remove(int key){
+		int i = find(key);
+		if(i<0) return;
+		int mask = keys.length-1;
+		vals[i] = null;
+		size--;
+		// move the following entries of the probe sequence back into the hole.
+		for(int j=(i+1)&mask;vals[j]!=null;j=(j+1)&mask){
+			int home = hash(keys[j])&mask;
+			if(((j-home)&mask)>=((j-i)&mask)){
+				keys[i] = keys[j];
+				vals[i] = vals[j];
+				vals[j] = null;
+				i = j;
+			}
+		}
+	}
+
+
+	private int find(int key){
+		int mask = keys.length-1;
+		for(int i=hash(key)&mask;vals[i]!=null;i=(i+1)&mask){
+			if(keys[i]==key) return i;
+		}
+		return -1;
+	}
+
+
+	private static int hash(int key){
+		int h = key*0x9E3779B9;
+		return h^(h>>>16);
+	}
+
+
+	private void grow(){
+		int[] oldKeys = keys;
+		Object[] oldVals = vals;
+		keys = new int[oldKeys.length*2];
+		vals = new Object[oldKeys.length*2];
+		size = 0;
+		for(int i=0;i<oldKeys.length;i++){
+			if(oldVals[i]!=null) put(oldKeys[i],oldVals[i]);
+		}
+	}
+
+
+	public String toString(){
+		StringBuffer sb = new StringBuffer("{");
+		for(int i=0;i<keys.length;i++){
+			if(vals[i]==null) continue;
+			if(sb.length()>1) sb.append(", ");
+			sb.append(keys[i]).append("=").append(vals[i]);
+		}
+		return sb.append("}").toString();
+	}
+}
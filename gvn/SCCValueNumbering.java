@@ -0,0 +1,363 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import coins.backend.Op;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * SCC-based optimistic value numbering on the SSA graph.
+ * The definitions of the SSA variables are split into strongly connected
+ * components over their def-use edges. The components are numbered with
+ * the operands first; a component which contains a loop phi is iterated
+ * optimistically until its value numbers are stable, and only that
+ * component is revisited.
+ * The results are put into the value table of GVN, and GVN numbers the
+ * basic blocks once in reverse post-order without traversing the
+ * dominator tree again.
+ **/
+class SCCValueNumbering {
+	private static final int PHI = 0;
+	private static final int COPY = 1;
+	private static final int EXP = 2;
+	private static final int FRESH = 3;
+	private GVN gvn;
+	private ValueExpTable valid;
+	private BasicBlk[] bVecInOrderOfRPost;
+	private int nDef;
+	private LirNode[] defNode;
+	private LirNode[] defVar;
+	private BasicBlk[] defBlk;
+	private int[] kind;
+	private int[][] operands;
+	private HashMap varToDef;
+	/** The current value number of each definition. -1 is not numbered yet **/
+	private int[] cur;
+	/** The value number reserved for each definition on the optimistic iteration **/
+	private int[] cand;
+	/** The number of components **/
+	public int sccs;
+	/** The number of components which have loops **/
+	public int loops;
+	/** The number of the optimistic iterations **/
+	public int iterations;
+
+	/**
+	 * Constructor
+	 * @param gvn The GVN whose value table is filled
+	 * @param bVecInOrderOfRPost The basic blocks in reverse post-order
+	 **/
+	SCCValueNumbering(GVN gvn, BasicBlk[] bVecInOrderOfRPost){
+		this.gvn = gvn;
+		this.valid = gvn.valueTable;
+		this.bVecInOrderOfRPost = bVecInOrderOfRPost;
+	}
+
+
+	/**
+	 * Number all the SSA variables.
+	 **/
+	void number(){
+		collectDefs();
+		cur = new int[nDef];
+		cand = new int[nDef];
+		Arrays.fill(cur, -1);
+		Arrays.fill(cand, -1);
+		findSCCs();
+	}
+
+
+	/**
+	 * Collect the definitions in reverse post-order.
+	 **/
+	private void collectDefs(){
+		ArrayList nodes = new ArrayList();
+		ArrayList vars = new ArrayList();
+		ArrayList blks = new ArrayList();
+		ArrayList kinds = new ArrayList();
+		for(int i=1;i<bVecInOrderOfRPost.length; i++) {
+			BasicBlk blk = bVecInOrderOfRPost[i];
+			for(BiLink p=blk.instrList().first();!p.atEnd();p=p.next()){
+				LirNode node = (LirNode)p.elem();
+				if(node.opCode==Op.PHI){
+					addDef(nodes,vars,blks,kinds,node,node.kid(0),blk,PHI);
+				}else if(node.opCode==Op.SET && node.kid(0).opCode==Op.REG){
+					addDef(nodes,vars,blks,kinds,node,node.kid(0),blk,(node.kid(1).nKids()==0) ? COPY : EXP);
+				}else if(node.opCode==Op.CALL && node.kid(2).nKids()>0 && node.kid(2).kid(0).opCode==Op.REG){
+					addDef(nodes,vars,blks,kinds,node,node.kid(2).kid(0),blk,FRESH);
+				}else if(node.opCode==Op.PROLOGUE){
+					for(int j=0;j<node.nKids();j++){
+						if(node.kid(j).opCode==Op.REG) addDef(nodes,vars,blks,kinds,node,node.kid(j),blk,FRESH);
+					}
+				}
+			}
+		}
+		nDef = nodes.size();
+		defNode = (LirNode[])nodes.toArray(new LirNode[nDef]);
+		defVar = (LirNode[])vars.toArray(new LirNode[nDef]);
+		defBlk = (BasicBlk[])blks.toArray(new BasicBlk[nDef]);
+		kind = new int[nDef];
+		varToDef = new HashMap(nDef*2);
+		for(int d=0;d<nDef;d++){
+			kind[d] = ((Integer)kinds.get(d)).intValue();
+			varToDef.put(defVar[d], d);
+		}
+		operands = new int[nDef][];
+		ArrayList ops = new ArrayList();
+		for(int d=0;d<nDef;d++){
+			ops.clear();
+			if(kind[d]==PHI){
+				for(int i=1;i<defNode[d].nKids();i++) addOperand(ops,defNode[d].kid(i).kid(0));
+			}else if(kind[d]!=FRESH){
+				addOperand(ops,defNode[d].kid(1));
+			}
+			operands[d] = new int[ops.size()];
+			for(int i=0;i<ops.size();i++) operands[d][i] = ((Integer)ops.get(i)).intValue();
+		}
+	}
+
+
+	private void addDef(ArrayList nodes, ArrayList vars, ArrayList blks, ArrayList kinds, LirNode node, LirNode var, BasicBlk blk, int k){
+		nodes.add(node);
+		vars.add(var);
+		blks.add(blk);
+		kinds.add(k);
+	}
+
+
+	private void addOperand(ArrayList ops, LirNode exp){
+		if(exp.opCode==Op.REG){
+			Integer d = (Integer)varToDef.get(exp);
+			if(d!=null && !ops.contains(d)) ops.add(d);
+			return;
+		}
+		for(int i=0;i<exp.nKids();i++) addOperand(ops,exp.kid(i));
+	}
+
+
+	/**
+	 * Tarjan's algorithm with an explicit stack.
+	 * The components are found with their operands first.
+	 **/
+	private void findSCCs(){
+		int[] index = new int[nDef];
+		int[] low = new int[nDef];
+		boolean[] onStack = new boolean[nDef];
+		int[] stack = new int[nDef];
+		int[] call = new int[nDef];
+		int[] edge = new int[nDef];
+		int sp = 0;
+		int counter = 0;
+		Arrays.fill(index, -1);
+		for(int s=0;s<nDef;s++){
+			if(index[s]!=-1) continue;
+			int cp = 0;
+			call[cp] = s;
+			edge[cp++] = 0;
+			index[s] = low[s] = counter++;
+			stack[sp++] = s;
+			onStack[s] = true;
+			while(cp>0){
+				int v = call[cp-1];
+				if(edge[cp-1]<operands[v].length){
+					int w = operands[v][edge[cp-1]++];
+					if(index[w]==-1){
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						call[cp] = w;
+						edge[cp++] = 0;
+					}else if(onStack[w] && index[w]<low[v]){
+						low[v] = index[w];
+					}
+				}else{
+					cp--;
+					if(cp>0 && low[v]<low[call[cp-1]]) low[call[cp-1]] = low[v];
+					if(low[v]==index[v]){
+						int top = sp;
+						int w;
+						do{
+							w = stack[--sp];
+							onStack[w] = false;
+						}while(w!=v);
+						int[] members = new int[top-sp];
+						System.arraycopy(stack, sp, members, 0, members.length);
+						Arrays.sort(members);
+						numberSCC(members);
+					}
+				}
+			}
+		}
+	}
+
+
+	private boolean selfLoop(int d){
+		for(int i=0;i<operands[d].length;i++){
+			if(operands[d][i]==d) return true;
+		}
+		return false;
+	}
+
+
+	private void numberSCC(int[] members){
+		sccs++;
+		if(members.length==1 && !selfLoop(members[0])){
+			int d = members[0];
+			cur[d] = evaluate(d,valid);
+			commit(d);
+			return;
+		}
+		loops++;
+		boolean change = true;
+		int iter = 0;
+		ValueExpTable optimistic = new ValueExpTable();
+		while(change && iter<=members.length+1){
+			change = false;
+			iter++;
+			optimistic.clear();
+			for(int i=0;i<members.length;i++){
+				int d = members[i];
+				int val = evaluate(d,optimistic);
+				if(val!=cur[d]){
+					cur[d] = val;
+					change = true;
+				}
+			}
+		}
+		iterations += iter;
+		for(int i=0;i<members.length;i++){
+			int d = members[i];
+			// not stable or never defined: give up the optimistic assumption.
+			if(change || cur[d]==-1) cur[d] = reserve(d);
+		}
+		for(int i=0;i<members.length;i++) commit(members[i]);
+	}
+
+
+	private int reserve(int d){
+		if(cand[d]==-1) cand[d] = gvn.newValue();
+		return cand[d];
+	}
+
+
+	/**
+	 * Compute the value number of the definition.
+	 * @param d The definition
+	 * @param table The valid table, or the optimistic table of the current iteration
+	 **/
+	private int evaluate(int d, ValueExpTable table){
+		boolean optimistic = (table!=valid);
+		switch(kind[d]){
+		case FRESH:
+			return gvn.newValue();
+		case COPY:{
+			int val = leafValue(defNode[d].kid(1),defBlk[d],true);
+			if(val==-1 && !optimistic) val = gvn.newValue();
+			return val;
+		}
+		case PHI:{
+			LirNode phi = defNode[d];
+			int same = -1;
+			boolean isSame = true;
+			for(int i=1;i<phi.nKids();i++){
+				int val = leafValue(phi.kid(i).kid(0),defBlk[d],phi.kid(i).kid(0).opCode!=Op.REG);
+				if(val==-1){
+					if(!optimistic) isSame = false;
+					continue;
+				}
+				if(same==-1) same = val;
+				else if(same!=val) isSame = false;
+			}
+			if(isSame && (same!=-1 || optimistic)) return same;
+			break;
+		}
+		}
+		int id = build(table,d,true);
+		int val = table.value(id);
+		if(val!=-1) return val;
+		if(optimistic){
+			val = valid.value(build(valid,d,false));
+			if(val==-1) val = reserve(d);
+		}else{
+			val = gvn.newValue();
+		}
+		table.setValue(id, val);
+		return val;
+	}
+
+
+	/**
+	 * Put the value number of the definition into the value table of GVN.
+	 **/
+	private void commit(int d){
+		int val = cur[d];
+		if(kind[d]==EXP || kind[d]==PHI && !sameArgs(d)){
+			int id = build(valid,d,true);
+			if(!valid.contains(id)) valid.setValue(id, val);
+		}
+		gvn.setValue(val,defVar[d]);
+	}
+
+
+	private boolean sameArgs(int d){
+		LirNode phi = defNode[d];
+		int first = leafValue(phi.kid(1).kid(0),defBlk[d],false);
+		if(first==-1) return false;
+		for(int i=2;i<phi.nKids();i++){
+			if(leafValue(phi.kid(i).kid(0),defBlk[d],false)!=first) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Return the value number of the leaf. If create is true and the leaf which is
+	 * not defined in this function has no value number, a new value number is given
+	 * to it as GVN.makeVExp does.
+	 **/
+	private int leafValue(LirNode leaf, BasicBlk blk, boolean create){
+		if(leaf.opCode==Op.REG){
+			Integer d = (Integer)varToDef.get(leaf);
+			if(d!=null) return cur[d.intValue()];
+		}
+		int val = gvn.getValue(leaf);
+		if(val==-1 && create) val = gvn.newValue(leaf,blk);
+		return val;
+	}
+
+
+	/**
+	 * Intern the value expression of the definition into the table.
+	 * The shape of the expression is the same as GVN.makeVExp.
+	 **/
+	private int build(ValueExpTable table, int d, boolean create){
+		LirNode node = defNode[d];
+		if(kind[d]==PHI){
+			int base = table.mark();
+			table.push(table.valueLeaf(defBlk[d].id,create));
+			for(int i=1;i<node.nKids();i++){
+				int val = leafValue(node.kid(i).kid(0),defBlk[d],node.kid(i).kid(0).opCode!=Op.REG);
+				table.push(table.valueLeaf(val,create));
+			}
+			return table.find(node.opCode,node.type,base,create);
+		}
+		return build(table,node.kid(1),defBlk[d],create);
+	}
+
+
+	private int build(ValueExpTable table, LirNode exp, BasicBlk blk, boolean create){
+		int base = table.mark();
+		for(int i=0;i<exp.nKids();i++){
+			if(exp.kid(i).nKids()>0) table.push(build(table,exp.kid(i),blk,create));
+			else table.push(table.valueLeaf(leafValue(exp.kid(i),blk,true),create));
+		}
+		return table.find(exp.opCode,exp.type,base,create);
+	}
+}
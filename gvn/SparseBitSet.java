@@ -0,0 +1,128 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+/**
+ * Sparse set of non-negative int, used for the value numbers which reach
+ * each basic block in GVN.
+ * Only the non-empty 64 bit words are held, with their word indexes
+ * sorted in an int array. Lookups are binary searches and do not allocate.
+ **/
+class SparseBitSet {
+	/** The sorted word indexes **/
+	private int[] index;
+	/** The bits of each word **/
+	private long[] bits;
+	/** The number of words **/
+	private int size;
+
+	SparseBitSet(){
+		index = new int[4];
+		bits = new long[4];
+	}
+
+
+	/**
+	 * Return true if this set contains the value.
+	 **/
+	boolean contains(int val){
+		if(val<0) return false;
+		int pos = search(val>>>6);
+		return (pos>=0 && (bits[pos] & (1L<<(val&63)))!=0);
+	}
+
+
+	/**
+	 * Add the value. Negative values are ignored.
+	 **/
+	void add(int val){
+		if(val<0) return;
+		int w = val>>>6;
+		int pos = search(w);
+		if(pos<0){
+			pos = -pos-1;
+			if(size==index.length) grow(size*2);
+			System.arraycopy(index, pos, index, pos+1, size-pos);
+			System.arraycopy(bits, pos, bits, pos+1, size-pos);
+			index[pos] = w;
+			bits[pos] = 0L;
+			size++;
+		}
+		bits[pos] |= 1L<<(val&63);
+	}
+
+
+	/**
+	 * Add all the values of the other set.
+	 **/
+	void addAll(SparseBitSet other){
+		if(other==null || other==this || other.size==0) return;
+		int missing = 0;
+		for(int i=0,j=0;j<other.size;j++){
+			while(i<size && index[i]<other.index[j]) i++;
+			if(i==size || index[i]!=other.index[j]) missing++;
+		}
+		if(missing==0){
+			for(int i=0,j=0;j<other.size;j++){
+				while(index[i]!=other.index[j]) i++;
+				bits[i] |= other.bits[j];
+			}
+			return;
+		}
+		int[] ni = new int[size+missing];
+		long[] nb = new long[size+missing];
+		int i = 0, j = 0, k = 0;
+		while(i<size || j<other.size){
+			if(j==other.size || i<size && index[i]<other.index[j]){
+				ni[k] = index[i];
+				nb[k++] = bits[i++];
+			}else if(i==size || other.index[j]<index[i]){
+				ni[k] = other.index[j];
+				nb[k++] = other.bits[j++];
+			}else{
+				ni[k] = index[i];
+				nb[k++] = bits[i++] | other.bits[j++];
+			}
+		}
+		index = ni;
+		bits = nb;
+		size = k;
+	}
+
+
+	private int search(int w){
+		int lo = 0, hi = size-1;
+		while(lo<=hi){
+			int mid = (lo+hi)>>>1;
+			if(index[mid]<w) lo = mid+1;
+			else if(index[mid]>w) hi = mid-1;
+			else return mid;
+		}
+		return -(lo+1);
+	}
+
+
+	private void grow(int n){
+		int[] ni = new int[n];
+		long[] nb = new long[n];
+		System.arraycopy(index, 0, ni, 0, size);
+		System.arraycopy(bits, 0, nb, 0, size);
+		index = ni;
+		bits = nb;
+	}
+
+
+	public String toString(){
+		StringBuffer sb = new StringBuffer("[");
+		for(int i=0;i<size;i++){
+			for(int b=0;b<64;b++){
+				if((bits[i] & (1L<<b))==0) continue;
+				if(sb.length()>1) sb.append(", ");
+				sb.append((index[i]<<6)+b);
+			}
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,345 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.Arrays;
+import coins.backend.Op;
+import coins.backend.lir.LirFconst;
+import coins.backend.lir.LirIconst;
+import coins.backend.lir.LirNode;
+
+/**
+ * Hash-consing table of value expressions for GVN.
+ * Each distinct expression is interned as a tuple (opcode, type, ids of the
+ * operands) in an open addressing table of int arrays, and gets an id.
+ * Integer constants are tuples whose operands are the bits of the constant,
+ * other leaves (registers, symbols and so on) are compared by equals.
+ * The value number of each id is held in an int array.
+ **/
+class ValueExpTable {
+	/** The mark of no value number **/
+	private static final int NONE = Integer.MIN_VALUE;
+	/** The type of the leaf which holds a value number. See GVN.makeVExp **/
+	static final int VALUE_TYPE = 514;
+	/** The number of ids **/
+	private int size;
+	private int[] op;
+	private int[] type;
+	private int[] hash;
+	private int[] kidStart;
+	private int[] kidNum;
+	/** The leaf node of the id if the id is not a tuple **/
+	private Object[] leaf;
+	/** The value number of each id **/
+	private int[] value;
+	/** The operands of all the tuples **/
+	private int[] kids;
+	private int kidSize;
+	/** The hash slots of tuples and leaves. The slot holds id+1 **/
+	private int[] slots;
+	private int[] leafSlots;
+	private int leafCount;
+	/** The stack of operand ids under construction **/
+	private int[] buf;
+	private int top;
+
+	ValueExpTable(){
+		int n = 256;
+		op = new int[n];
+		type = new int[n];
+		hash = new int[n];
+		kidStart = new int[n];
+		kidNum = new int[n];
+		leaf = new Object[n];
+		value = new int[n];
+		kids = new int[n*2];
+		slots = new int[n*2];
+		leafSlots = new int[n];
+		buf = new int[32];
+	}
+
+
+	/**
+	 * Return the value number of the id, or -1 if there is no value number.
+	 **/
+	int value(int id){
+		if(id<0 || value[id]==NONE) return -1;
+		return value[id];
+	}
+
+
+	boolean contains(int id){
+		return (id>=0 && value[id]!=NONE);
+	}
+
+
+	void setValue(int id, int val){
+		value[id] = val;
+	}
+
+
+	void remove(int id){
+		if(id>=0) value[id] = NONE;
+	}
+
+
+	/**
+	 * Return the id of the expression.
+	 * @param exp The expression
+	 * @param create If false, return -1 when the expression is not interned yet
+	 **/
+	int intern(LirNode exp, boolean create){
+		if(exp.nKids()==0) return leafId(exp,create);
+		int base = top;
+		for(int i=0;i<exp.nKids();i++){
+			int k = intern(exp.kid(i),create);
+			if(k==-1){
+				top = base;
+				return -1;
+			}
+			push(k);
+		}
+		return find(exp.opCode,exp.type,base,create);
+	}
+
+
+	/**
+	 * Return the id of the leaf iconst(VALUE_TYPE, val) which stands for a value number.
+	 **/
+	int valueLeaf(int val, boolean create){
+		return constant(Op.INTCONST,VALUE_TYPE,val,create);
+	}
+
+
+	/**
+	 * Return the value number held by the leaf made by valueLeaf, or -1 if
+	 * the id is not such a leaf.
+	 **/
+	int leafValue(int id){
+		if(id<0 || op[id]!=Op.INTCONST || type[id]!=VALUE_TYPE || leaf[id]!=null) return -1;
+		return kids[kidStart[id]+1];
+	}
+
+
+	int op(int id){
+		return op[id];
+	}
+
+
+	int type(int id){
+		return type[id];
+	}
+
+
+	/**
+	 * Return the number of the operands of the tuple.
+	 **/
+	int kidNum(int id){
+		return kidNum[id];
+	}
+
+
+	/**
+	 * Return the id of the i-th operand of the tuple.
+	 **/
+	int kid(int id, int i){
+		return kids[kidStart[id]+i];
+	}
+
+
+	/**
+	 * Return the id of the tuple whose i-th operand is replaced with k.
+	 **/
+	int replaceKid(int id, int i, int k){
+		int base = top;
+		for(int j=0;j<kidNum[id];j++) push((j==i) ? k : kids[kidStart[id]+j]);
+		return find(op[id],type[id],base,true);
+	}
+
+
+	private int leafId(LirNode exp, boolean create){
+		if(exp.opCode==Op.INTCONST) return constant(Op.INTCONST,exp.type,((LirIconst)exp).value,create);
+		if(exp.opCode==Op.FLOATCONST) return constant(Op.FLOATCONST,exp.type,Double.doubleToLongBits(((LirFconst)exp).value),create);
+		int h = mix(exp.hashCode());
+		int mask = leafSlots.length-1;
+		for(int i=h&mask;leafSlots[i]!=0;i=(i+1)&mask){
+			int id = leafSlots[i]-1;
+			if(hash[id]==h && exp.equals(leaf[id])) return id;
+		}
+		if(!create) return -1;
+		int id = newId(exp.opCode,exp.type,h,0);
+		leaf[id] = exp;
+		if((++leafCount)*2>leafSlots.length) leafSlots = rehash(leafSlots,true);
+		else insert(leafSlots,id);
+		return id;
+	}
+
+
+	private int constant(int o, int t, long bits, boolean create){
+		int base = top;
+		push((int)(bits>>>32));
+		push((int)bits);
+		return find(o,t,base,create);
+	}
+
+
+	/**
+	 * Start the operands of a new tuple and return the base of them.
+	 **/
+	int mark(){
+		return top;
+	}
+
+
+	/**
+	 * Push the id of an operand.
+	 **/
+	void push(int id){
+		if(top==buf.length){
+			int[] nb = new int[buf.length*2];
+			System.arraycopy(buf, 0, nb, 0, top);
+			buf = nb;
+		}
+		buf[top++] = id;
+	}
+
+
+	/**
+	 * Discard the operands pushed after base.
+	 **/
+	void release(int base){
+		top = base;
+	}
+
+
+	/**
+	 * Return the id of the tuple of the operands pushed after base, and pop them.
+	 * @param o The opcode
+	 * @param t The type
+	 * @param base The value returned by mark()
+	 * @param create If false, return -1 when the tuple is not interned yet
+	 **/
+	int find(int o, int t, int base, boolean create){
+		int n = top-base;
+		int h = o*31+t;
+		for(int i=base;i<top;i++) h = h*31+buf[i];
+		h = mix(h);
+		int mask = slots.length-1;
+		for(int i=h&mask;slots[i]!=0;i=(i+1)&mask){
+			int id = slots[i]-1;
+			if(hash[id]==h && op[id]==o && type[id]==t && kidNum[id]==n && sameKids(id,base,n)){
+				top = base;
+				return id;
+			}
+		}
+		if(!create){
+			top = base;
+			return -1;
+		}
+		if(kidSize+n>kids.length){
+			int[] nk = new int[Math.max(kids.length*2,kidSize+n)];
+			System.arraycopy(kids, 0, nk, 0, kidSize);
+			kids = nk;
+		}
+		int id = newId(o,t,h,n);
+		System.arraycopy(buf, base, kids, kidSize, n);
+		kidSize += n;
+		top = base;
+		if((size-leafCount)*2>slots.length) slots = rehash(slots,false);
+		else insert(slots,id);
+		return id;
+	}
+
+
+	private boolean sameKids(int id, int base, int n){
+		int s = kidStart[id];
+		for(int i=0;i<n;i++){
+			if(kids[s+i]!=buf[base+i]) return false;
+		}
+		return true;
+	}
+
+
+	private int newId(int o, int t, int h, int n){
+		if(size==op.length) grow();
+		int id = size++;
+		op[id] = o;
+		type[id] = t;
+		hash[id] = h;
+		kidStart[id] = kidSize;
+		kidNum[id] = n;
+		value[id] = NONE;
+		return id;
+	}
+
+
+	private void grow(){
+		int n = op.length*2;
+		op = copy(op,n);
+		type = copy(type,n);
+		hash = copy(hash,n);
+		kidStart = copy(kidStart,n);
+		kidNum = copy(kidNum,n);
+		value = copy(value,n);
+		Object[] nl = new Object[n];
+		System.arraycopy(leaf, 0, nl, 0, size);
+		leaf = nl;
+	}
+
+
+	private int[] rehash(int[] old, boolean leaves){
+		int[] ns = new int[old.length*2];
+		for(int id=0;id<size;id++){
+			if((leaf[id]!=null)==leaves) insert(ns,id);
+		}
+		return ns;
+	}
+
+
+	private void insert(int[] table, int id){
+		int mask = table.length-1;
+		int i = hash[id]&mask;
+		while(table[i]!=0) i = (i+1)&mask;
+		table[i] = id+1;
+	}
+
+
+	private static int[] copy(int[] a, int n){
+		int[] na = new int[n];
+		System.arraycopy(a, 0, na, 0, a.length);
+		return na;
+	}
+
+
+	private static int mix(int h){
+		h ^= (h>>>16);
+		h *= 0x85ebca6b;
+		h ^= (h>>>13);
+		return h;
+	}
+
+
+	/**
+	 * Forget all the expressions but keep the arrays, so that the table can be
+	 * filled again without allocation.
+	 **/
+	void clear(){
+		Arrays.fill(leaf, 0, size, null);
+		Arrays.fill(slots, 0);
+		Arrays.fill(leafSlots, 0);
+		size = 0;
+		kidSize = 0;
+		leafCount = 0;
+		top = 0;
+	}
+
+
+	/**
+	 * Return the number of interned expressions.
+	 **/
+	int size(){
+		return size;
+	}
+}
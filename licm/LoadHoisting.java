@@ -0,0 +1,223 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import coins.backend.Data;
+import coins.backend.Function;
+import coins.backend.LocalTransformer;
+import coins.backend.Op;
+import coins.backend.ana.Dominators;
+import coins.backend.ana.LoopAnalysis;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+import coins.backend.util.ImList;
+
+/**
+ * Loop-invariant load hoisting on SSA form.
+ * A load whose address is invariant in a natural loop is moved to the
+ * preheader of the loop if DDAliasAnalysis shows that no store in the loop
+ * may change the loaded memory and the loop has no CALL. The load is moved
+ * only if its block dominates all the exits of the loop, or if its address
+ * is a FRAME or STATIC symbol with a constant offset, so that the moved load
+ * does not fault. Inner loops are processed first, so a load can be moved
+ * out of several loops. The number of the moved loads is reported for each
+ * nesting level of LoopAnalysis.
+ **/
+public class LoadHoisting implements LocalTransformer {
+	public static final int THR = SsaEnvironment.OptThr;
+	private SsaEnvironment env;
+	private Function f;
+	private Dominators dom;
+	private LoopAnalysis loopInfo;
+	private DDAliasAnalysis alias;
+	/** The basic block which defines each variable **/
+	private HashMap defBlk;
+	/** The number of the moved loads for each nesting level **/
+	private int[] hoisted;
+
+	public LoadHoisting(SsaEnvironment env, SsaSymTab sstab) {
+		this.env = env;
+	}
+
+
+	public boolean doIt(Function func, ImList args) {
+		f = func;
+		env.println("****************** doing LoadHoisting to " + f.symbol.name, SsaEnvironment.MinThr);
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
+		invoke();
+		profile.end();
+		f.flowGraph().touch();
+		return (true);
+	}
+
+
+	private void invoke(){
+		dom = (Dominators)f.require(Dominators.analyzer);
+		loopInfo = (LoopAnalysis)f.require(LoopAnalysis.analyzer);
+		alias = new DDAliasAnalysis(env,f);
+		collectDefs();
+		int maxLevel = 0;
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			maxLevel = Math.max(maxLevel, loopInfo.nestLevel[blk.id]);
+		}
+		hoisted = new int[maxLevel+1];
+
+		ArrayList loops = new NaturalLoops(f,dom).loops();
+		for(int i=0;i<loops.size();i++){
+			NaturalLoops.Loop loop = (NaturalLoops.Loop)loops.get(i);
+			BasicBlk pre = loop.preheader();
+			if(pre!=null) hoist(loop,pre);
+		}
+
+		StringBuffer report = new StringBuffer();
+		int total = 0;
+		for(int i=1;i<hoisted.length;i++){
+			report.append(" level "+i+": "+hoisted[i]);
+			total += hoisted[i];
+		}
+		env.println("LoadHoisting of "+f.symbol.name+": "+total+" loads moved,"+report, SsaEnvironment.MsgThr);
+		env.println("LoadHoisting of "+f.symbol.name+": alias queries: "+alias.cacheStatistics(), SsaEnvironment.MsgThr);
+	}
+
+
+	/**
+	 * Return the number of the moved loads which were in the loops of the nesting level.
+	 **/
+	public int hoisted(int level){
+		return (hoisted!=null && level<hoisted.length) ? hoisted[level] : 0;
+	}
+
+
+	private void collectDefs(){
+		defBlk = new HashMap();
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				if((node.opCode==Op.SET || node.opCode==Op.PHI) && node.kid(0).opCode==Op.REG) defBlk.put(node.kid(0), blk);
+				else if(node.opCode==Op.CALL && node.kid(2).nKids()>0 && node.kid(2).kid(0).opCode==Op.REG) defBlk.put(node.kid(2).kid(0), blk);
+				else if(node.opCode==Op.PROLOGUE){
+					for(int i=0;i<node.nKids();i++){
+						if(node.kid(i).opCode==Op.REG) defBlk.put(node.kid(i), blk);
+					}
+				}
+			}
+		}
+	}
+
+
+	private void hoist(NaturalLoops.Loop loop, BasicBlk pre){
+		ArrayList stores = new ArrayList();
+		ArrayList exits = loop.exits();
+		for(int i=0;i<loop.blks.size();i++){
+			BasicBlk blk = (BasicBlk)loop.blks.get(i);
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				if(node.opCode==Op.CALL) return;
+				if(node.opCode==Op.SET && node.kid(0).opCode==Op.MEM) stores.add(new Store(node,blk,q));
+			}
+		}
+
+		boolean change = true;
+		while(change){
+			change = false;
+			for(int i=0;i<loop.blks.size();i++){
+				BasicBlk blk = (BasicBlk)loop.blks.get(i);
+				for(BiLink q=blk.instrList().first();!q.atEnd();){
+					LirNode node = (LirNode)q.elem();
+					BiLink next = q.next();
+					if(node.opCode==Op.SET && node.kid(0).opCode==Op.REG && node.kid(1).opCode==Op.MEM
+					   && isInvariant(node.kid(1).kid(0),loop) && isSafe(node.kid(1).kid(0),blk,exits)
+					   && !mayBeStored(node.kid(1),stores)){
+						q.unlink();
+						alias.invalidate(blk);
+						pre.instrList().last().addBefore(node);
+						defBlk.put(node.kid(0), pre);
+						alias.insertNewEntry(node,pre);
+						hoisted[loopInfo.nestLevel[blk.id]]++;
+						env.println("LoadHoisting : "+node+" to "+pre.label(), THR);
+						change = true;
+					}
+					q = next;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Return true if all the variables of the expression are defined out of the loop.
+	 **/
+	private boolean isInvariant(LirNode exp, NaturalLoops.Loop loop){
+		if(exp.opCode==Op.REG){
+			BasicBlk blk = (BasicBlk)defBlk.get(exp);
+			return blk==null || !loop.body[blk.id];
+		}
+		if(exp.opCode==Op.MEM) return false;
+		for(int i=0;i<exp.nKids();i++){
+			if(!isInvariant(exp.kid(i),loop)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Return true if the load from the address can be executed in the preheader.
+	 **/
+	private boolean isSafe(LirNode addr, BasicBlk blk, ArrayList exits){
+		if(isFixed(addr)) return true;
+		for(int i=0;i<exits.size();i++){
+			if(!dom.dominates(blk,(BasicBlk)exits.get(i))) return false;
+		}
+		return true;
+	}
+
+
+	private boolean isFixed(LirNode addr){
+		if(addr.opCode==Op.FRAME || addr.opCode==Op.STATIC) return true;
+		return addr.opCode==Op.ADD && isFixed(addr.kid(0)) && addr.kid(1).opCode==Op.INTCONST;
+	}
+
+
+	private boolean mayBeStored(LirNode load, ArrayList stores){
+		for(int i=0;i<stores.size();i++){
+			Store s = (Store)stores.get(i);
+			if(alias.checkAlias(load,s.node.kid(0),s.blk,s.q)) return true;
+		}
+		return false;
+	}
+
+
+	private static class Store {
+		LirNode node;
+		BasicBlk blk;
+		BiLink q;
+
+		Store(LirNode node, BasicBlk blk, BiLink q){
+			this.node = node;
+			this.blk = blk;
+			this.q = q;
+		}
+	}
+
+
+	/**
+	 * @param data Data to be processes.
+	 * @param args List of optional arguments.
+	 **/
+	public boolean doIt(Data data, ImList args) {return true;}
+	/**
+	 * Return the name of this optimizer.
+	 **/
+	public String name() {return "LoadHoisting";}
+	/**
+	 * Return brief descriptions of this optimizer.
+	 **/
+	public String subject() {return "Loop-invariant load hoisting on SSA form";}
+}
@@ -0,0 +1,139 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Stack;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.ana.Dominators;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * The natural loops of a function, found from the back edges of the
+ * dominator tree. The loops which have the same header are merged.
+ **/
+class NaturalLoops {
+	/** The loops, the inner loops first **/
+	private ArrayList loops;
+
+	NaturalLoops(Function f, Dominators dom){
+		HashMap headerToLoop = new HashMap();
+		loops = new ArrayList();
+		int idBound = f.flowGraph().idBound();
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+				BasicBlk header = (BasicBlk)q.elem();
+				if(!dom.dominates(header,blk)) continue;
+				Loop loop = (Loop)headerToLoop.get(header);
+				if(loop==null){
+					loop = new Loop(header,idBound);
+					headerToLoop.put(header, loop);
+					loops.add(loop);
+				}
+				loop.addLatch(blk);
+			}
+		}
+		// Sort by the size, so that the inner loops come first.
+		for(int i=1;i<loops.size();i++){
+			Loop loop = (Loop)loops.get(i);
+			int j = i;
+			while(j>0 && ((Loop)loops.get(j-1)).blks.size()>loop.blks.size()){
+				loops.set(j, loops.get(j-1));
+				j--;
+			}
+			loops.set(j, loop);
+		}
+	}
+
+
+	/**
+	 * Return the loops. The inner loops come first.
+	 **/
+	ArrayList loops(){
+		return loops;
+	}
+
+
+	/**
+	 * A natural loop.
+	 **/
+	static class Loop {
+		BasicBlk header;
+		/** True for the basic blocks of the loop **/
+		boolean[] body;
+		/** The basic blocks of the loop in the order of being found **/
+		ArrayList blks;
+
+		Loop(BasicBlk header, int idBound){
+			this.header = header;
+			body = new boolean[idBound];
+			blks = new ArrayList();
+			body[header.id] = true;
+			blks.add(header);
+		}
+
+
+		void addLatch(BasicBlk latch){
+			Stack work = new Stack();
+			if(!body[latch.id]){
+				body[latch.id] = true;
+				blks.add(latch);
+				work.push(latch);
+			}
+			while(!work.empty()){
+				BasicBlk blk = (BasicBlk)work.pop();
+				for(BiLink p=blk.predList().first();!p.atEnd();p=p.next()){
+					BasicBlk pred = (BasicBlk)p.elem();
+					if(body[pred.id]) continue;
+					body[pred.id] = true;
+					blks.add(pred);
+					work.push(pred);
+				}
+			}
+		}
+
+
+		/**
+		 * Return the preheader of the loop, or null if there is not.
+		 * The preheader is the only predecessor of the header out of the loop,
+		 * which has only one successor and ends with JUMP.
+		 **/
+		BasicBlk preheader(){
+			BasicBlk pre = null;
+			for(BiLink p=header.predList().first();!p.atEnd();p=p.next()){
+				BasicBlk pred = (BasicBlk)p.elem();
+				if(body[pred.id]) continue;
+				if(pre!=null) return null;
+				pre = pred;
+			}
+			if(pre==null || pre.succList().length()!=1 || pre.instrList().last().atEnd()) return null;
+			LirNode last = (LirNode)pre.instrList().last().elem();
+			return (last.opCode==Op.JUMP) ? pre : null;
+		}
+
+
+		/**
+		 * Return the basic blocks of the loop which have a successor out of the loop.
+		 **/
+		ArrayList exits(){
+			ArrayList exits = new ArrayList();
+			for(int i=0;i<blks.size();i++){
+				BasicBlk blk = (BasicBlk)blks.get(i);
+				for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+					if(!body[((BasicBlk)q.elem()).id]){
+						exits.add(blk);
+						break;
+					}
+				}
+			}
+			return exits;
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import coins.backend.Data;
+import coins.backend.Function;
+import coins.backend.LocalTransformer;
+import coins.backend.Op;
+import coins.backend.ana.DominanceFrontiers;
+import coins.backend.ana.Dominators;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirLabelRef;
+import coins.backend.lir.LirNode;
+import coins.backend.lir.LirSymRef;
+import coins.backend.sym.Symbol;
+import coins.backend.util.BiLink;
+import coins.backend.util.ImList;
+
+/**
+ * Register promotion of memory cells in loops on SSA form.
+ * A cell is a MEM node whose address is a FRAME or STATIC symbol with a
+ * constant offset. If no other cell of the same symbol is accessed in a
+ * natural loop, the loop has no CALL, and DDAliasAnalysis shows that no
+ * store through a pointer in the loop may change the cell (and no load
+ * through a pointer may read it, if the cell is stored in the loop), the
+ * cell is loaded into a new variable in the preheader, the loads in the
+ * loop use the variables, the stores in the loop define new variables
+ * joined by phis, and the last value is stored back at each exit of the
+ * loop. Only the loops with a preheader and whose exits have a single
+ * predecessor are promoted.
+ **/
+public class RegisterPromotion implements LocalTransformer {
+	public static final int THR = SsaEnvironment.OptThr;
+	private static final String tmpSymName = "_prom";
+	private SsaEnvironment env;
+	private SsaSymTab sstab;
+	private Function f;
+	private Util util;
+	private Dominators dom;
+	private DominanceFrontiers df;
+	private DDAliasAnalysis alias;
+	/** The number of the promoted cells, the replaced loads and the removed stores **/
+	private int promoted, loads, stores;
+
+	public RegisterPromotion(SsaEnvironment env, SsaSymTab sstab) {
+		this.env = env;
+		this.sstab = sstab;
+	}
+
+
+	public boolean doIt(Function func, ImList args) {
+		f = func;
+		env.println("****************** doing RegisterPromotion to " + f.symbol.name, SsaEnvironment.MinThr);
+		PassProfiler.Record profile = PassProfiler.begin(env, f, name());
+		invoke();
+		profile.end();
+		f.flowGraph().touch();
+		return (true);
+	}
+
+
+	private void invoke(){
+		util = new Util(env,f);
+		dom = (Dominators)f.require(Dominators.analyzer);
+		df = (DominanceFrontiers)f.require(DominanceFrontiers.analyzer);
+		alias = new DDAliasAnalysis(env,f);
+		promoted = loads = stores = 0;
+
+		ArrayList loops = new NaturalLoops(f,dom).loops();
+		for(int i=0;i<loops.size();i++){
+			NaturalLoops.Loop loop = (NaturalLoops.Loop)loops.get(i);
+			BasicBlk pre = loop.preheader();
+			if(pre==null || !hasSimpleExits(loop)) continue;
+			promote(loop,pre);
+		}
+		env.println("RegisterPromotion of "+f.symbol.name+": "+promoted+" cells promoted, "
+		            +loads+" loads replaced, "+stores+" stores removed", SsaEnvironment.MsgThr);
+		env.println("RegisterPromotion of "+f.symbol.name+": alias queries: "+alias.cacheStatistics(), SsaEnvironment.MsgThr);
+	}
+
+
+	/**
+	 * Return true if each basic block out of the loop which follows the loop
+	 * has only one predecessor.
+	 **/
+	private boolean hasSimpleExits(NaturalLoops.Loop loop){
+		ArrayList exits = loop.exits();
+		for(int i=0;i<exits.size();i++){
+			BasicBlk blk = (BasicBlk)exits.get(i);
+			for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+				BasicBlk succ = (BasicBlk)q.elem();
+				if(!loop.body[succ.id] && succ.predList().length()!=1) return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Promote the cells of the loop.
+	 * @return true if any cell is promoted
+	 **/
+	private boolean promote(NaturalLoops.Loop loop, BasicBlk pre){
+		// The cells of each symbol, and the stores and loads through pointers.
+		HashMap symToCell = new HashMap();
+		ArrayList ptrStores = new ArrayList();
+		ArrayList ptrLoads = new ArrayList();
+		for(int i=0;i<loop.blks.size();i++){
+			BasicBlk blk = (BasicBlk)loop.blks.get(i);
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+				LirNode node = (LirNode)q.elem();
+				if(node.opCode==Op.CALL) return false;
+				collectCells(node,blk,q,symToCell,ptrLoads,ptrStores);
+			}
+		}
+
+		ArrayList cells = new ArrayList();
+		for(java.util.Iterator it=symToCell.values().iterator();it.hasNext();){
+			Cell c = (Cell)it.next();
+			if(c.mem!=null && !mayBeAccessed(c,ptrLoads,ptrStores)) cells.add(c);
+		}
+		for(int i=0;i<cells.size();i++){
+			Cell c = (Cell)cells.get(i);
+			rewrite(c,loop,pre);
+			promoted++;
+			env.println("RegisterPromotion : "+c.mem+" in the loop of "+loop.header.label(), THR);
+		}
+		return cells.size()>0;
+	}
+
+
+	private void collectCells(LirNode node, BasicBlk blk, BiLink q, HashMap symToCell, ArrayList ptrLoads, ArrayList ptrStores){
+		if(node.opCode==Op.SET && node.kid(0).opCode==Op.MEM){
+			LirNode mem = node.kid(0);
+			if(isFixed(mem.kid(0))) addCell(mem,true,symToCell);
+			else{
+				ptrStores.add(new Access(mem,blk,q));
+				collectLoads(mem.kid(0),blk,q,symToCell,ptrLoads);
+			}
+			collectLoads(node.kid(1),blk,q,symToCell,ptrLoads);
+		}
+		else collectLoads(node,blk,q,symToCell,ptrLoads);
+	}
+
+
+	private void collectLoads(LirNode exp, BasicBlk blk, BiLink q, HashMap symToCell, ArrayList ptrLoads){
+		if(exp.opCode==Op.MEM){
+			if(isFixed(exp.kid(0))) addCell(exp,false,symToCell);
+			else ptrLoads.add(new Access(exp,blk,q));
+		}
+		for(int i=0;i<exp.nKids();i++) collectLoads(exp.kid(i),blk,q,symToCell,ptrLoads);
+	}
+
+
+	/**
+	 * Record the access to the cell. If the symbol has another cell, the
+	 * symbol is not promoted, because the cells may overlap.
+	 **/
+	private void addCell(LirNode mem, boolean store, HashMap symToCell){
+		Symbol sym = base(mem.kid(0));
+		Cell c = (Cell)symToCell.get(sym);
+		if(c==null){
+			c = new Cell(mem);
+			symToCell.put(sym, c);
+		}
+		else if(c.mem!=null && !c.mem.equals(mem)) c.mem = null;
+		if(store) c.stored = true;
+	}
+
+
+	private boolean isFixed(LirNode addr){
+		if(addr.opCode==Op.FRAME || addr.opCode==Op.STATIC) return true;
+		return addr.opCode==Op.ADD && isFixed(addr.kid(0)) && addr.kid(1).opCode==Op.INTCONST;
+	}
+
+
+	private Symbol base(LirNode addr){
+		while(addr.opCode==Op.ADD) addr = addr.kid(0);
+		return ((LirSymRef)addr).symbol;
+	}
+
+
+	/**
+	 * Return true if a store through a pointer in the loop may change the
+	 * cell, or a load through a pointer may read the stored cell.
+	 **/
+	private boolean mayBeAccessed(Cell c, ArrayList ptrLoads, ArrayList ptrStores){
+		for(int i=0;i<ptrStores.size();i++){
+			Access s = (Access)ptrStores.get(i);
+			if(alias.checkAlias(c.mem,s.mem,s.blk,s.q)) return true;
+		}
+		if(!c.stored) return false;
+		for(int i=0;i<ptrLoads.size();i++){
+			Access l = (Access)ptrLoads.get(i);
+			if(alias.checkAlias(l.mem,c.mem,l.blk,l.q)) return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Replace the accesses to the cell in the loop with variables.
+	 **/
+	private void rewrite(final Cell c, final NaturalLoops.Loop loop, BasicBlk pre){
+		final LirNode init = newVar(c.mem);
+		LirNode load = env.lir.operator(Op.SET, c.mem.type, init, c.mem.makeCopy(env.lir), ImList.Empty);
+		pre.instrList().last().addBefore(load);
+		alias.insertNewEntry(load,pre);
+		final LirNode[] curOut = new LirNode[f.flowGraph().idBound()];
+		final LirNode[] phis = new LirNode[f.flowGraph().idBound()];
+		if(c.stored) placePhis(c,loop,phis);
+
+		TreeWalker.walk(dom.kids, loop.header, new TreeWalker.PreOrder(){
+				public boolean enter(BasicBlk blk){
+					if(!loop.body[blk.id]) return false;
+					LirNode cur = (blk==loop.header) ? init : curOut[dom.immDominator(blk).id];
+					if(phis[blk.id]!=null) cur = phis[blk.id].kid(0);
+					curOut[blk.id] = rename(c,blk,cur);
+					alias.invalidate(blk);
+					return true;
+				}
+			});
+
+		for(int i=0;i<loop.blks.size();i++){
+			LirNode phi = phis[((BasicBlk)loop.blks.get(i)).id];
+			if(phi==null) continue;
+			for(int j=1;j<phi.nKids();j++){
+				BasicBlk pred = (((LirLabelRef)phi.kid(j).kid(1)).label).basicBlk();
+				LirNode val = loop.body[pred.id] ? curOut[pred.id] : init;
+				phi.kid(j).setKid(0, val.makeCopy(env.lir));
+			}
+		}
+
+		if(!c.stored) return;
+		ArrayList exits = loop.exits();
+		for(int i=0;i<exits.size();i++){
+			BasicBlk blk = (BasicBlk)exits.get(i);
+			for(BiLink q=blk.succList().first();!q.atEnd();q=q.next()){
+				BasicBlk succ = (BasicBlk)q.elem();
+				if(loop.body[succ.id]) continue;
+				BiLink p = succ.instrList().first();
+				while(!p.atEnd() && ((LirNode)p.elem()).opCode==Op.PHI) p = p.next();
+				LirNode store = env.lir.operator(Op.SET, c.mem.type, c.mem.makeCopy(env.lir), curOut[blk.id].makeCopy(env.lir), ImList.Empty);
+				p.addBefore(store);
+				alias.insertNewEntry(store,succ);
+			}
+		}
+	}
+
+
+	/**
+	 * Insert the phis of the cell on the iterated dominance frontiers of
+	 * the basic blocks which store the cell, in the loop.
+	 **/
+	private void placePhis(Cell c, final NaturalLoops.Loop loop, LirNode[] phis){
+		final boolean[] mark = new boolean[f.flowGraph().idBound()];
+		for(int i=0;i<loop.blks.size();i++){
+			BasicBlk blk = (BasicBlk)loop.blks.get(i);
+			if(!isStored(c,blk)) continue;
+			for(BiLink r=df.frontiers[blk.id].first();!r.atEnd();r=r.next()){
+				TreeWalker.walk(df.frontiers,(BasicBlk)r.elem(),new TreeWalker.PreOrder(){
+						public boolean enter(BasicBlk b){
+							if(mark[b.id] || !loop.body[b.id]) return false;
+							mark[b.id] = true;
+							return true;
+						}
+					});
+			}
+		}
+		for(int i=0;i<loop.blks.size();i++){
+			BasicBlk blk = (BasicBlk)loop.blks.get(i);
+			if(!mark[blk.id]) continue;
+			Symbol sym = sstab.newSsaSymbol(tmpSymName, c.mem.type);
+			LirNode phi = util.makePhiInst(sym, blk);
+			blk.instrList().first().addBefore(phi);
+			phis[blk.id] = phi;
+		}
+	}
+
+
+	private boolean isStored(Cell c, BasicBlk blk){
+		for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()){
+			LirNode node = (LirNode)q.elem();
+			if(node.opCode==Op.SET && node.kid(0).equals(c.mem)) return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Rename the accesses to the cell in the basic block.
+	 * @param cur The variable which has the value of the cell at the entry
+	 * @return The variable which has the value of the cell at the exit
+	 **/
+	private LirNode rename(Cell c, BasicBlk blk, LirNode cur){
+		for(BiLink q=blk.instrList().first();!q.atEnd();){
+			LirNode node = (LirNode)q.elem();
+			BiLink next = q.next();
+			if(node.opCode==Op.SET && node.kid(0).equals(c.mem)){
+				replaceLoads(node.kid(1),node,1,c,cur);
+				if(node.kid(1).opCode==Op.REG){
+					cur = node.kid(1);
+					q.unlink();
+				}
+				else{
+					cur = newVar(c.mem);
+					node.setKid(0, cur);
+				}
+				stores++;
+			}
+			else{
+				for(int i=0;i<node.nKids();i++) replaceLoads(node.kid(i),node,i,c,cur);
+			}
+			q = next;
+		}
+		return cur;
+	}
+
+
+	private void replaceLoads(LirNode exp, LirNode parent, int n, Cell c, LirNode cur){
+		if(exp.equals(c.mem)){
+			parent.setKid(n, cur.makeCopy(env.lir));
+			loads++;
+			return;
+		}
+		for(int i=0;i<exp.nKids();i++) replaceLoads(exp.kid(i),exp,i,c,cur);
+	}
+
+
+	private LirNode newVar(LirNode mem){
+		Symbol sym = sstab.newSsaSymbol(tmpSymName, mem.type);
+		return env.lir.symRef(Op.REG, mem.type, sym, ImList.Empty);
+	}
+
+
+	/**
+	 * A memory cell accessed in the loop.
+	 **/
+	private static class Cell {
+		/** The MEM node, or null if the symbol has several cells **/
+		LirNode mem;
+		/** True if the cell is stored in the loop **/
+		boolean stored;
+
+		Cell(LirNode mem){
+			this.mem = mem;
+		}
+	}
+
+
+	private static class Access {
+		LirNode mem;
+		BasicBlk blk;
+		BiLink q;
+
+		Access(LirNode mem, BasicBlk blk, BiLink q){
+			this.mem = mem;
+			this.blk = blk;
+			this.q = q;
+		}
+	}
+
+
+	/**
+	 * @param data Data to be processes.
+	 * @param args List of optional arguments.
+	 **/
+	public boolean doIt(Data data, ImList args) {return true;}
+	/**
+	 * Return the name of this optimizer.
+	 **/
+	public String name() {return "RegisterPromotion";}
+	/**
+	 * Return brief descriptions of this optimizer.
+	 **/
+	public String subject() {return "Register promotion of memory cells in loops on SSA form";}
+}
@@ -0,0 +1,110 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import coins.backend.Function;
+import coins.backend.Type;
+import coins.backend.sym.Symbol;
+import coins.backend.util.ImList;
+
+/**
+ * The workspace of ParallelDriver in which each function has its own
+ * environment and symbol table. The output of the environment of a function
+ * is kept in a buffer, and the buffers are written to the output of the
+ * module in the order of the module. The temporary symbols of a function
+ * are numbered by a counter of its own symbol table, so their names are the
+ * same on every schedule.
+ * The environments of the functions share the LIR factory of the module,
+ * which is not known to be safe for threads, so the passes of the functions
+ * are run one at a time under the lock of the factory. A subclass whose
+ * environments have factories of their own may return null from lock().
+ * This relies on the constructors SsaEnvironment(Module, CoinsOptions) and
+ * SsaSymTab(SsaEnvironment, Function); with other constructors, override
+ * environment() and symTab().
+ **/
+public class FunctionWorkspace implements ParallelDriver.Workspace {
+	private SsaEnvironment env;
+	/** The buffer of the output of each function **/
+	private HashMap buffers;
+
+	/**
+	 * Constructor
+	 * @param e The environment of the SSA module, to which the output is written
+	 **/
+	public FunctionWorkspace(SsaEnvironment e){
+		env = e;
+		buffers = new HashMap();
+	}
+
+
+	public SsaEnvironment environment(Function f){
+		SsaEnvironment e = new SsaEnvironment(env.module, env.opt);
+		StringWriter buffer = new StringWriter();
+		e.output = new PrintWriter(buffer);
+		synchronized(buffers){
+			buffers.put(f, buffer);
+		}
+		return e;
+	}
+
+
+	public SsaSymTab symTab(SsaEnvironment e, Function f){
+		return new FunctionSymTab(e,f);
+	}
+
+
+	public Object lock(Function f){
+		return env.lir;
+	}
+
+
+	public void finish(Function f, SsaEnvironment e){
+		StringWriter buffer;
+		synchronized(buffers){
+			buffer = (StringWriter)buffers.remove(f);
+		}
+		if(buffer==null) return;
+		e.output.flush();
+		env.output.print(buffer.toString());
+		env.output.flush();
+	}
+
+
+	/**
+	 * The symbol table of a function, which numbers the temporary symbols by itself.
+	 **/
+	static class FunctionSymTab extends SsaSymTab {
+		private Function f;
+		/** The number of the temporary symbols made in the function **/
+		private int count;
+
+		FunctionSymTab(SsaEnvironment e, Function f){
+			super(e,f);
+			this.f = f;
+		}
+
+
+		/**
+		 * Make a new register symbol of the function, whose name is the
+		 * prefix and the number of the symbol in the function.
+		 **/
+		public Symbol newSsaSymbol(String prefix, int type){
+			String name;
+			do{
+				name = prefix+"_"+(++count);
+			}while(f.localSymtab.get(name)!=null);
+			String sym = "(\""+name+"\" REG "+Type.toString(type)+" "+Math.max(1,Type.bits(type)/8)+" 0)";
+			try{
+				return f.localSymtab.addSymbol((ImList)ImList.readSexp(new StringReader(sym)));
+			}catch(Exception ex){
+				throw new RuntimeException("FunctionWorkspace: cannot make "+sym+": "+ex.getMessage());
+			}
+		}
+	}
+}
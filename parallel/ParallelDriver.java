@@ -0,0 +1,258 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import coins.backend.Function;
+import coins.backend.GlobalTransformer;
+import coins.backend.LocalTransformer;
+import coins.backend.Module;
+import coins.backend.util.BiLink;
+import coins.backend.util.ImList;
+
+/**
+ * Run a pipeline of the SSA passes on the functions of a module in parallel.
+ * The functions are independent of each other, so each function is processed
+ * by a task of a fork-join pool with its own passes, environment and symbol
+ * table. The temporary symbols (_ddpre, _divex, ...) are made in the symbol
+ * table of each function, so their names do not depend on the schedule.
+ * The driver depends on this: the passes of a function touch only the
+ * function, its environment and its symbol table, and whatever else they
+ * touch (the LIR factory, the global symbol table of the module) is guarded
+ * by the lock which the workspace gives for the function. Two tasks run at
+ * the same time only if their locks are different or null.
+ * After all the tasks have finished, the workspace of each function is
+ * finished and the failures are reported in the order of the module.
+ * As a transformer of the module, it runs the passes of the option
+ * ssa-parallel-passes with FunctionWorkspace when ssa-parallel is set.
+ **/
+public class ParallelDriver implements GlobalTransformer {
+	public String name() {return "ParallelDriver";}
+	public String subject() {return "Run the SSA passes on the functions in parallel.";}
+	/** The option which turns the driver on and gives the number of the worker threads **/
+	public static final String OPT = "ssa-parallel";
+	/** The option which gives the passes of the pipeline **/
+	public static final String PASSES_OPT = "ssa-parallel-passes";
+	/** The passes of the pipeline if the option ssa-parallel-passes is not given **/
+	public static final String PASSES = "gvn,eqp,ddcpyp";
+
+	/**
+	 * Create the passes of the pipeline for a function.
+	 * This is called on the worker thread.
+	 **/
+	public interface Pipeline {
+		LocalTransformer[] create(SsaEnvironment env, SsaSymTab sstab, Function f);
+	}
+
+	/**
+	 * Create the environment and the symbol table of each function. Nothing
+	 * may be shared among the functions except what is safe for threads.
+	 **/
+	public interface Workspace {
+		/** Called on the worker thread **/
+		SsaEnvironment environment(Function f);
+		/** Called on the worker thread **/
+		SsaSymTab symTab(SsaEnvironment env, Function f);
+		/** Called on the thread of run() in the order of the module, e.g. to flush the output **/
+		void finish(Function f, SsaEnvironment env);
+		/**
+		 * Return the object which is locked while the workspace and the passes
+		 * of the function are made and run, or null if they share nothing which
+		 * is unsafe for threads. Called on the worker thread.
+		 **/
+		Object lock(Function f);
+	}
+
+	private SsaEnvironment env;
+	private Workspace workspace;
+	private int parallelism;
+
+	/**
+	 * Constructor
+	 * @param e The environment of the SSA module
+	 * @param w The workspace of the functions
+	 * @param n The number of the worker threads. If it is not positive, the number of the processors is used.
+	 **/
+	public ParallelDriver(SsaEnvironment e, Workspace w, int n){
+		env = e;
+		workspace = w;
+		parallelism = (n>0) ? n : Runtime.getRuntime().availableProcessors();
+	}
+
+
+	/**
+	 * Constructor of the transformer of the module.
+	 * Each function gets its own environment and symbol table from FunctionWorkspace.
+	 * @param e The environment of the SSA module
+	 * @param tab The symbol tabel of the SSA module
+	 **/
+	public ParallelDriver(SsaEnvironment e, SsaSymTab tab){
+		this(e,new FunctionWorkspace(e),parallelism(e));
+	}
+
+
+	/**
+	 * Run the pipeline of the option ssa-parallel-passes on the functions of
+	 * the module if the option ssa-parallel is set.
+	 * @param module The module
+	 * @param args The list of options
+	 **/
+	public boolean doIt(Module module, ImList args){
+		if(!env.opt.isSet(OPT)) return true;
+		String names = env.opt.isSet(PASSES_OPT) ? env.opt.getArg(PASSES_OPT) : null;
+		run(module,pipeline((names==null) ? PASSES : names));
+		return true;
+	}
+
+
+	/**
+	 * Return the number of the worker threads given by the option ssa-parallel=n, or 0.
+	 **/
+	public static int parallelism(SsaEnvironment env){
+		if(!env.opt.isSet(OPT)) return 0;
+		String arg = env.opt.getArg(OPT);
+		try{
+			return (arg==null) ? 0 : Integer.parseInt(arg);
+		}catch(NumberFormatException e){
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Return the pipeline of the passes named in the list, which is separated by commas.
+	 * The names are divex, gvn, eqp, ddpre, pre, premem, prescalar and ddcpyp.
+	 **/
+	public static Pipeline pipeline(String names){
+		final String[] passes = names.split(",");
+		for(int i=0;i<passes.length;i++){
+			passes[i] = passes[i].trim();
+			if(!isPass(passes[i])) throw new IllegalArgumentException("unknown pass: "+passes[i]);
+		}
+		return new Pipeline(){
+			public LocalTransformer[] create(SsaEnvironment env, SsaSymTab sstab, Function f){
+				LocalTransformer[] t = new LocalTransformer[passes.length];
+				for(int i=0;i<passes.length;i++) t[i] = newPass(passes[i],env,sstab,f);
+				return t;
+			}
+		};
+	}
+
+
+	private static boolean isPass(String name){
+		return name.equals("divex") || name.equals("gvn") || name.equals("eqp") || name.equals("ddpre") ||
+		name.equals("pre") || name.equals("premem") || name.equals("prescalar") || name.equals("ddcpyp");
+	}
+
+
+	private static LocalTransformer newPass(String name, SsaEnvironment env, SsaSymTab sstab, Function f){
+		if(name.equals("divex")) return new DivideExpression(env,sstab);
+		if(name.equals("gvn")) return new GVN(env,f,sstab);
+		if(name.equals("eqp")) return new EQP(env,sstab,2);
+		if(name.equals("ddpre")) return new DDPRE(env,sstab);
+		if(name.equals("pre")) return new PRE(env,sstab);
+		if(name.equals("premem")) return new PREMem(env,sstab);
+		if(name.equals("prescalar")) return new PREScalar(env,sstab);
+		return new DDCPYP(env,sstab);
+	}
+
+
+	/**
+	 * Run the pipeline on all the functions of the module.
+	 * @param module The module
+	 * @param pipeline The pipeline
+	 **/
+	public void run(Module module, Pipeline pipeline){
+		ArrayList funcs = new ArrayList();
+		for(BiLink p=module.elements.first();!p.atEnd();p=p.next()){
+			if(p.elem() instanceof Function) funcs.add(p.elem());
+		}
+		Task[] tasks = new Task[funcs.size()];
+		for(int i=0;i<tasks.length;i++) tasks[i] = new Task((Function)funcs.get(i),pipeline);
+		env.println("****************** running the SSA passes on "+tasks.length+" functions with "+parallelism+" threads", SsaEnvironment.MinThr);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try{
+			pool.invoke(new Split(tasks,0,tasks.length));
+		}finally{
+			pool.shutdown();
+		}
+
+		RuntimeException failure = null;
+		for(int i=0;i<tasks.length;i++){
+			Task t = tasks[i];
+			if(t.env!=null) workspace.finish(t.f,t.env);
+			if(t.failure!=null){
+				env.println("SSA passes failed on "+t.f.symbol.name+": "+t.failure, SsaEnvironment.MinThr);
+				if(failure==null) failure = (t.failure instanceof RuntimeException) ? (RuntimeException)t.failure : new RuntimeException(t.failure);
+			}
+		}
+		if(failure!=null) throw failure;
+	}
+
+
+	/**
+	 * The pipeline on a function.
+	 **/
+	private class Task {
+		private Function f;
+		private Pipeline pipeline;
+		private SsaEnvironment env;
+		private Throwable failure;
+
+		Task(Function f, Pipeline pipeline){
+			this.f = f;
+			this.pipeline = pipeline;
+		}
+
+		void run(){
+			try{
+				Object lock = workspace.lock(f);
+				if(lock==null) runPasses();
+				else synchronized(lock){
+					runPasses();
+				}
+			}catch(RuntimeException e){
+				failure = e;
+			}catch(Error e){
+				failure = e;
+			}
+		}
+
+		private void runPasses(){
+			env = workspace.environment(f);
+			SsaSymTab sstab = workspace.symTab(env,f);
+			LocalTransformer[] passes = pipeline.create(env,sstab,f);
+			for(int i=0;i<passes.length;i++) passes[i].doIt(f,ImList.Empty);
+		}
+	}
+
+
+	/**
+	 * Split the functions in halves until one function is left.
+	 **/
+	private static class Split extends RecursiveAction {
+		private Task[] tasks;
+		private int from;
+		private int to;
+
+		Split(Task[] tasks, int from, int to){
+			this.tasks = tasks;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute(){
+			if(to-from<=1){
+				if(from<to) tasks[from].run();
+				return;
+			}
+			int mid = (from+to)>>>1;
+			invokeAll(new Split(tasks,from,mid), new Split(tasks,mid,to));
+		}
+	}
+}
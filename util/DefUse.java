@@ -0,0 +1,228 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import coins.backend.Function;
+import coins.backend.Op;
+import coins.backend.cfg.BasicBlk;
+import coins.backend.lir.LirNode;
+import coins.backend.util.BiLink;
+
+/**
+ * The def-use chains of the variables of a function in SSA form.
+ * Each variable has the lists of the statements which define and use it,
+ * so that they are found in O(uses) instead of scanning the basic blocks. The
+ * passes which insert or remove statements must tell it by add() and
+ * remove(), and the uses are rewritten by replace().
+ **/
+final class DefUse {
+	private static final ArrayList NONE = new ArrayList();
+	private SsaEnvironment env;
+	/** The uses of each variable **/
+	private HashMap uses;
+	/** The definitions of each variable **/
+	private HashMap defs;
+
+	/**
+	 * A statement which defines or uses a variable.
+	 **/
+	static final class Use {
+		final BasicBlk blk;
+		final BiLink link;
+
+		Use(BasicBlk blk, BiLink link){
+			this.blk = blk;
+			this.link = link;
+		}
+
+
+		LirNode node(){
+			return (LirNode)link.elem();
+		}
+	}
+
+	DefUse(SsaEnvironment env, Function f){
+		this.env = env;
+		uses = new HashMap();
+		defs = new HashMap();
+		for(BiLink p=f.flowGraph().basicBlkList.first();!p.atEnd();p=p.next()){
+			BasicBlk blk = (BasicBlk)p.elem();
+			for(BiLink q=blk.instrList().first();!q.atEnd();q=q.next()) add(blk,q);
+		}
+	}
+
+
+	/**
+	 * Record the definitions and the uses of the statement at the link.
+	 **/
+	void add(BasicBlk blk, BiLink q){
+		LirNode node = (LirNode)q.elem();
+		Use use = new Use(blk,q);
+		switch(node.opCode){
+		case Op.SET:
+		case Op.PHI:
+			define(node.kid(0),use);
+			if(node.kid(0).opCode!=Op.REG) addUses(node.kid(0),use);
+			for(int i=1;i<node.nKids();i++) addUses(node.kid(i),use);
+			break;
+		case Op.CALL:
+			addUses(node.kid(0),use);
+			addUses(node.kid(1),use);
+			for(int i=0;i<node.kid(2).nKids();i++){
+				LirNode ret = node.kid(2).kid(i);
+				if(ret.opCode==Op.REG) define(ret,use);
+				else addUses(ret,use);
+			}
+			break;
+		case Op.PROLOGUE:
+			for(int i=0;i<node.nKids();i++) define(node.kid(i),use);
+			break;
+		default:
+			addUses(node,use);
+		}
+	}
+
+
+	/**
+	 * Forget the definitions and the uses of the statement at the link.
+	 * Call this before the statement is unlinked or changed.
+	 **/
+	void remove(BiLink q){
+		LirNode node = (LirNode)q.elem();
+		switch(node.opCode){
+		case Op.SET:
+		case Op.PHI:
+			undefine(node.kid(0),q);
+			break;
+		case Op.CALL:
+			for(int i=0;i<node.kid(2).nKids();i++) undefine(node.kid(2).kid(i),q);
+			break;
+		case Op.PROLOGUE:
+			for(int i=0;i<node.nKids();i++) undefine(node.kid(i),q);
+			return;
+		}
+		removeUses(node,q);
+	}
+
+
+	/**
+	 * Return the uses of the variable. The list must not be changed.
+	 **/
+	ArrayList uses(LirNode var){
+		ArrayList list = (ArrayList)uses.get(var);
+		return (list==null) ? NONE : list;
+	}
+
+
+	/**
+	 * Return the number of the definitions of the variable.
+	 **/
+	int defs(LirNode var){
+		return definitions(var).size();
+	}
+
+
+	/**
+	 * Return the definitions of the variable. The list must not be changed.
+	 **/
+	ArrayList definitions(LirNode var){
+		ArrayList list = (ArrayList)defs.get(var);
+		return (list==null) ? NONE : list;
+	}
+
+
+	/**
+	 * Replace all the uses of the variable from with the leaf to.
+	 * @return The number of the replaced statements
+	 **/
+	int replace(LirNode from, LirNode to){
+		ArrayList list = (ArrayList)uses.remove(from);
+		if(list==null) return 0;
+		for(int i=0;i<list.size();i++){
+			Use use = (Use)list.get(i);
+			LirNode node = use.node();
+			if(node.opCode==Op.SET || node.opCode==Op.PHI){
+				if(node.kid(0).opCode!=Op.REG) replace(node.kid(0),from,to);
+				for(int j=1;j<node.nKids();j++) replace(node,j,from,to);
+			}
+			else if(node.opCode==Op.CALL){
+				replace(node,0,from,to);
+				replace(node,1,from,to);
+				for(int j=0;j<node.kid(2).nKids();j++){
+					if(node.kid(2).kid(j).opCode!=Op.REG) replace(node.kid(2).kid(j),from,to);
+				}
+			}
+			else replace(node,from,to);
+			if(to.opCode==Op.REG) addUse(to,use);
+		}
+		return list.size();
+	}
+
+
+	private void replace(LirNode exp, LirNode from, LirNode to){
+		for(int i=0;i<exp.nKids();i++) replace(exp,i,from,to);
+	}
+
+
+	private void replace(LirNode parent, int n, LirNode from, LirNode to){
+		if(parent.kid(n).equals(from)) parent.setKid(n, to.makeCopy(env.lir));
+		else replace(parent.kid(n),from,to);
+	}
+
+
+	private void define(LirNode var, Use use){
+		if(var.opCode!=Op.REG) return;
+		ArrayList list = (ArrayList)defs.get(var);
+		if(list==null){
+			list = new ArrayList();
+			defs.put(var, list);
+		}
+		list.add(use);
+	}
+
+
+	private void undefine(LirNode var, BiLink q){
+		if(var.opCode!=Op.REG) return;
+		removeUse((ArrayList)defs.get(var),q);
+	}
+
+
+	private void addUses(LirNode exp, Use use){
+		if(exp.opCode==Op.REG){
+			addUse(exp,use);
+			return;
+		}
+		for(int i=0;i<exp.nKids();i++) addUses(exp.kid(i),use);
+	}
+
+
+	private void addUse(LirNode var, Use use){
+		ArrayList list = (ArrayList)uses.get(var);
+		if(list==null){
+			list = new ArrayList();
+			uses.put(var, list);
+		}
+		else if(!list.isEmpty() && ((Use)list.get(list.size()-1)).link==use.link) return;
+		list.add(use);
+	}
+
+
+	private void removeUses(LirNode exp, BiLink q){
+		if(exp.opCode==Op.REG){
+			removeUse((ArrayList)uses.get(exp),q);
+			return;
+		}
+		for(int i=0;i<exp.nKids();i++) removeUses(exp.kid(i),q);
+	}
+
+
+	private static void removeUse(ArrayList list, BiLink q){
+		for(int i=0;list!=null && i<list.size();i++){
+			if(((Use)list.get(i)).link==q) list.remove(i--);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import java.util.Arrays;
+
+/**
+ * Scratch arrays indexed by the ids of basic blocks for the queries of the
+ * demand-driven passes. The arrays are allocated once per function and reused
+ * by every query. Each element holds the epoch in which it was written and is
+ * valid only in that epoch, so clear() is O(1).
+ **/
+final class Scratch {
+	private Scratch(){}
+
+
+	/**
+	 * Replacement of boolean[].
+	 **/
+	static final class Flags {
+		private int[] stamp;
+		private int epoch;
+
+		Flags(int size){
+			stamp = new int[size];
+			epoch = 1;
+		}
+
+
+		int size(){
+			return stamp.length;
+		}
+
+
+		boolean get(int i){
+			return stamp[i]==epoch;
+		}
+
+
+		void set(int i){
+			stamp[i] = epoch;
+		}
+
+
+		void set(int i, boolean flag){
+			stamp[i] = flag ? epoch : 0;
+		}
+
+
+		/**
+		 * Set all the flags which are set in the other.
+		 **/
+		void addAll(Flags other){
+			for(int i=0;i<stamp.length;i++){
+				if(other.get(i)) stamp[i] = epoch;
+			}
+		}
+
+
+		/**
+		 * Reset all the flags.
+		 **/
+		void clear(){
+			if(++epoch==Integer.MAX_VALUE){
+				Arrays.fill(stamp, 0);
+				epoch = 1;
+			}
+		}
+	}
+
+
+	/**
+	 * Replacement of int[] whose elements are initialized to a fixed value.
+	 **/
+	static final class Ints {
+		private int[] stamp;
+		private int[] value;
+		private int initial;
+		private int epoch;
+
+		Ints(int size, int initial){
+			stamp = new int[size];
+			value = new int[size];
+			this.initial = initial;
+			epoch = 1;
+		}
+
+
+		int size(){
+			return stamp.length;
+		}
+
+
+		int get(int i){
+			return (stamp[i]==epoch) ? value[i] : initial;
+		}
+
+
+		/**
+		 * Return true if the element is set in the current epoch.
+		 **/
+		boolean contains(int i){
+			return stamp[i]==epoch;
+		}
+
+
+		void set(int i, int val){
+			stamp[i] = epoch;
+			value[i] = val;
+		}
+
+
+		/**
+		 * Reset all the elements to the initial value.
+		 **/
+		void clear(){
+			if(++epoch==Integer.MAX_VALUE){
+				Arrays.fill(stamp, 0);
+				epoch = 1;
+			}
+		}
+	}
+
+
+	/**
+	 * Replacement of HashSet[] of small sets of int.
+	 **/
+	static final class IntSets {
+		private int[] stamp;
+		private int[][] values;
+		private int[] size;
+		private int epoch;
+
+		IntSets(int n){
+			stamp = new int[n];
+			values = new int[n][];
+			size = new int[n];
+			epoch = 1;
+		}
+
+
+		boolean contains(int i, int val){
+			if(stamp[i]!=epoch) return false;
+			int[] vals = values[i];
+			for(int k=0;k<size[i];k++){
+				if(vals[k]==val) return true;
+			}
+			return false;
+		}
+
+
+		void add(int i, int val){
+			if(stamp[i]!=epoch){
+				stamp[i] = epoch;
+				size[i] = 0;
+			}else if(contains(i,val)){
+				return;
+			}
+			if(values[i]==null){
+				values[i] = new int[2];
+			}else if(size[i]==values[i].length){
+				int[] vals = new int[size[i]*2];
+				System.arraycopy(values[i], 0, vals, 0, size[i]);
+				values[i] = vals;
+			}
+			values[i][size[i]++] = val;
+		}
+
+
+		/**
+		 * Make all the sets empty.
+		 **/
+		void clear(){
+			if(++epoch==Integer.MAX_VALUE){
+				Arrays.fill(stamp, 0);
+				epoch = 1;
+			}
+		}
+	}
+}
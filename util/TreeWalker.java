@@ -0,0 +1,77 @@
+/* ---------------------------------------------------------------------
+%   Copyright (C) 2007 Association for the COINS Compiler Infrastructure
+%       (Read COPYING for detailed information.)
+--------------------------------------------------------------------- */
+package coins.ssa;
+
+import coins.backend.cfg.BasicBlk;
+import coins.backend.util.BiLink;
+import coins.backend.util.BiList;
+
+/**
+ * Depth first walk over basic blocks with an explicit stack instead of
+ * recursion, so that deep dominator trees do not overflow the thread stack.
+ * The children of a basic block are given by a list indexed by its id,
+ * e.g. Dominators.kids or DominanceFrontiers.frontiers. The blocks are
+ * entered and left in the same order as the recursive walk
+ *   enter(blk); for each child: walk(child); leave(blk);
+ **/
+final class TreeWalker {
+	/**
+	 * The actions on the basic blocks.
+	 **/
+	interface Visitor {
+		/**
+		 * Called before the children are walked.
+		 * @return false if the children must not be walked. Then leave is not called.
+		 **/
+		boolean enter(BasicBlk blk);
+		/** Called after the children are walked **/
+		void leave(BasicBlk blk);
+	}
+
+	/**
+	 * Visitor which does nothing when leaving a block.
+	 **/
+	static abstract class PreOrder implements Visitor {
+		public void leave(BasicBlk blk){}
+	}
+
+	private TreeWalker(){}
+
+
+	/**
+	 * Walk the basic blocks from the root.
+	 * @param children The children of each basic block indexed by its id
+	 * @param root The root
+	 * @param v The actions
+	 **/
+	static void walk(BiList[] children, BasicBlk root, Visitor v){
+		if(!v.enter(root)) return;
+		BasicBlk[] blks = new BasicBlk[16];
+		BiLink[] next = new BiLink[16];
+		int sp = 0;
+		blks[0] = root;
+		next[0] = children[root.id].first();
+		while(sp>=0){
+			BiLink p = next[sp];
+			if(p.atEnd()){
+				v.leave(blks[sp--]);
+				continue;
+			}
+			next[sp] = p.next();
+			BasicBlk kid = (BasicBlk)p.elem();
+			if(!v.enter(kid)) continue;
+			if(++sp==blks.length){
+				BasicBlk[] b = new BasicBlk[sp*2];
+				BiLink[] n = new BiLink[sp*2];
+				System.arraycopy(blks,0,b,0,sp);
+				System.arraycopy(next,0,n,0,sp);
+				blks = b;
+				next = n;
+			}
+			blks[sp] = kid;
+			next[sp] = children[kid.id].first();
+		}
+	}
+}